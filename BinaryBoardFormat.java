@@ -0,0 +1,208 @@
+//package G2048;
+
+//------------------------------------------------------------------//
+//  Name: Bilguun Bulgan
+//  File: BinaryBoardFormat.java
+//
+//  This file reads and writes boards in a compact binary format, next
+//  to the text format of Board.saveBoard. Every tile is stored as its
+//  exponent in a single byte and every board record ends with a CRC32
+//  checksum, so damaged files are detected instead of loaded. Files
+//  are read and written through NIO file channels.
+//------------------------------------------------------------------//
+/**
+ * File layout (all numbers big-endian)
+ * <p/>
+ *   int   magic       0x32303438 ("2048")
+ *   int   version     1
+ *   int   grid size   n
+ *   record:
+ *     long  score
+ *     byte  exponent of every tile, n * n bytes in row-major order
+ *     int   CRC32 of the score and exponent bytes
+ * <p/>
+ * BoardArchive stores many records of the same grid size in one file.
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Class name: BinaryBoardFormat
+ * Purpose: Saves and loads single boards in the binary format and
+ * encodes and decodes the board records shared with BoardArchive.
+ */
+public final class BinaryBoardFormat {
+
+  public static final int MAGIC = 0x32303438; // "2048"
+  public static final int VERSION = 1;
+  public static final int HEADER_BYTES = 12;
+
+  //largest exponent a tile of Board can hold (2^30)
+  static final int MAX_EXPONENT = 30;
+
+  private BinaryBoardFormat() {
+  }
+
+  /**
+   * Returns the size of one board record
+   * @param int gridSize - the size of the boards
+   * @return int - bytes per record
+   */
+  public static int recordBytes(int gridSize) {
+    return 8 + gridSize * gridSize + 4;
+  }
+
+  /**
+   * Saves a board into a binary file
+   * @param Board board - the board to save
+   * @param String outputBoard - name of the file where to save the board
+   */
+  public static void save(Board board, String outputBoard)
+    throws IOException {
+    int size = board.GRID_SIZE;
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES +
+                                            recordBytes(size));
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(size);
+    putRecord(buffer, board, new byte[size * size]);
+    buffer.flip();
+
+    try (FileChannel channel = FileChannel.open(Paths.get(outputBoard),
+           StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+           StandardOpenOption.TRUNCATE_EXISTING)) {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+  }
+
+  /**
+   * Loads a board from a binary file
+   * @param String inputBoard - the name of the input file
+   * @param Random random - random generator of the board
+   * @return Board - the loaded board
+   */
+  public static Board load(String inputBoard, Random random)
+    throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(inputBoard),
+                                                StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      readFully(channel, header);
+      int size = checkHeader(header, MAGIC, VERSION, inputBoard);
+      if (channel.size() != HEADER_BYTES + recordBytes(size)) {
+        throw new IOException(inputBoard + " has the wrong length");
+      }
+      ByteBuffer record = ByteBuffer.allocate(recordBytes(size));
+      readFully(channel, record);
+      return getRecord(record, 0, size, new byte[size * size], random);
+    }
+  }
+
+  /**
+   * Checks the magic number and version of a header and returns its
+   * grid size
+   * @param ByteBuffer header - the header bytes, read from position 0
+   * @param int magic - the expected magic number
+   * @param int expectedVersion - the version the file must have
+   * @param String name - file name for error messages
+   * @return int - the grid size
+   */
+  static int checkHeader(ByteBuffer header, int magic, int expectedVersion,
+                         String name) throws IOException {
+    if (header.getInt(0) != magic) {
+      throw new IOException(name + " isn't a binary board file");
+    }
+    int version = header.getInt(4);
+    if (version != expectedVersion) {
+      throw new IOException(name + " has unsupported version " + version);
+    }
+    int size = header.getInt(8);
+    if (size < 1 || size > 46340) {
+      throw new IOException(name + " has invalid grid size " + size);
+    }
+    return size;
+  }
+
+  /**
+   * Appends the record of a board to a buffer
+   * @param ByteBuffer buffer - buffer with room for one record
+   * @param Board board - the board to write
+   * @param byte[] exponents - scratch array of GRID_SIZE^2 bytes
+   */
+  static void putRecord(ByteBuffer buffer, Board board, byte[] exponents) {
+    board.copyExponents(exponents);
+    CRC32 crc = new CRC32();
+    long score = board.getScore();
+    int start = buffer.position();
+    buffer.putLong(score);
+    buffer.put(exponents);
+
+    //checksum over the bytes just written
+    ByteBuffer written = buffer.duplicate();
+    written.position(start).limit(buffer.position());
+    crc.update(written);
+    buffer.putInt((int) crc.getValue());
+  }
+
+  /**
+   * Decodes the record at a position of a buffer into a board
+   * @param ByteBuffer buffer - buffer holding the record
+   * @param int position - position of the record in the buffer
+   * @param int size - grid size of the record
+   * @param byte[] exponents - scratch array of size^2 bytes
+   * @param Random random - random generator of the board
+   * @return Board - the decoded board
+   */
+  static Board getRecord(ByteBuffer buffer, int position, int size,
+                         byte[] exponents, Random random)
+    throws IOException {
+    if (!checkRecord(buffer, position, size)) {
+      throw new IOException("Board record has a wrong checksum");
+    }
+    long score = buffer.getLong(position);
+    buffer.get(position + 8, exponents, 0, size * size);
+    for (byte exponent : exponents) {
+      if (exponent < 0 || exponent > MAX_EXPONENT) {
+        throw new IOException("Board record has invalid exponent " +
+                              exponent);
+      }
+    }
+    if (score < 0) {
+      throw new IOException("Board record has invalid score " + score);
+    }
+    return new Board(size, score, exponents, random);
+  }
+
+  /**
+   * Checks the CRC32 checksum of a record
+   * @param ByteBuffer buffer - buffer holding the record
+   * @param int position - position of the record in the buffer
+   * @param int size - grid size of the record
+   * @return boolean - true if the checksum matches
+   */
+  static boolean checkRecord(ByteBuffer buffer, int position, int size) {
+    int dataBytes = 8 + size * size;
+    ByteBuffer data = buffer.duplicate();
+    data.limit(position + dataBytes).position(position);
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    return (int) crc.getValue() == buffer.getInt(position + dataBytes);
+  }
+
+  /**
+   * Reads until a buffer is full, then flips it for reading
+   */
+  static void readFully(FileChannel channel, ByteBuffer buffer)
+    throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new EOFException("Binary board file is cut off");
+      }
+    }
+    buffer.flip();
+  }
+}
@@ -0,0 +1,356 @@
+//package G2048;
+
+//------------------------------------------------------------------//
+//  Name: Bilguun Bulgan
+//  File: BitBoard.java
+//
+//  This file represents a 4x4 2048 game board packed into a single
+//  64-bit long. Every tile is stored as a 4-bit exponent (0 for an
+//  empty tile, 1 for 2, 2 for 4, ... 15 for 32768). The class offers
+//  the same public methods as Board so that headless workloads can
+//  play whole games without allocating anything per move. Moves are
+//  looked up in the precomputed tables of MoveTables.
+//------------------------------------------------------------------//
+/**
+ * Bit layout
+ * <p/>
+ *     0   1   2   3
+ * 0   0   1   2   3
+ * 1   4   5   6   7
+ * 2   8   9  10  11
+ * 3  12  13  14  15
+ * <p/>
+ * The tile at (row, column) is stored in nibble number row * 4 + column,
+ * i.e. at bits 4 * (row * 4 + column) .. 4 * (row * 4 + column) + 3.
+ * Row number r is therefore the 16 bits starting at bit 16 * r.
+ */
+
+import java.util.*;
+
+/**
+ * Class name: BitBoard
+ * Purpose: Represents a 4x4 2048 game board encoded as one long,
+ * contains methods for manipulating the board.
+ */
+public class BitBoard {
+  public final int NUM_START_TILES = 2;
+  public final int TWO_PROBABILITY = SPAWN_TWO_PROBABILITY;
+  public final int GRID_SIZE = 4;
+
+  //chance in percent that a new tile is a 2
+  static final int SPAWN_TWO_PROBABILITY = 90;
+
+  //highest exponent a nibble can hold, tiles of this value don't merge
+  public static final int MAX_EXPONENT = 15;
+
+  static final long NIBBLE_MASK = 0xFL;
+
+  private final Random random;
+  private long board;
+  private long score;
+  private long prevBoard;
+  private long prevScore = -1;
+
+  /** Constructs a new 4x4 game board with two random start tiles
+   * @param Random random: random generator
+   */
+  public BitBoard(Random random) {
+    this.random = random;
+    this.board = 0L;
+    this.score = 0;
+    for (int i = 0; i < NUM_START_TILES; i++) {
+      this.addRandomTile();
+    }
+  }
+
+  /**
+   * Constructs a game board from an already encoded state
+   * @param long board: the encoded tiles
+   * @param long score: the current score
+   * @param Random random: random generator
+   */
+  public BitBoard(long board, long score, Random random) {
+    this.random = random;
+    this.board = board;
+    this.score = score;
+  }
+
+  /**
+   * Constructs a game board with the same tiles and score as a Board
+   * @param Board source: a 4x4 board whose tiles are at most 32768
+   * @param Random random: random generator
+   */
+  public BitBoard(Board source, Random random) {
+    this(encode(source.getGrid()), source.getScore(), random);
+  }
+
+  /**
+   * Encodes a 4x4 grid of tile values into a long
+   * @param int[][] grid: the tile values, 0 for empty tiles
+   * @return long - the encoded board
+   */
+  public static long encode(int[][] grid) {
+    if (grid.length != 4) {
+      throw new IllegalArgumentException("BitBoard only supports 4x4 grids");
+    }
+    long encoded = 0L;
+    for (int row = 0; row < 4; row++) {
+      for (int column = 0; column < 4; column++) {
+        int value = grid[row][column];
+        int exponent = 0;
+        if (value != 0) {
+          exponent = Integer.numberOfTrailingZeros(value);
+          //only powers of two that fit in a nibble can be encoded
+          if (value < 0 || Integer.bitCount(value) != 1 ||
+              exponent == 0 || exponent > MAX_EXPONENT) {
+            throw new IllegalArgumentException("Tile value " + value +
+                                               " can't be encoded");
+          }
+        }
+        encoded |= ((long) exponent) << (4 * (row * 4 + column));
+      }
+    }
+    return encoded;
+  }
+
+  /**
+   * Getter method for the encoded tiles
+   * @return long board
+   */
+  public long getState() {
+    return this.board;
+  }
+
+  /**
+   * Getter method for the instance variable prevScore
+   * @return long prevScore
+   */
+  public long getPrevScore() {
+    return this.prevScore;
+  }
+
+  /**
+   * Adds a random tile (of value 2 or 4) to a random empty space
+   * on the board. Uses the random generator exactly like Board does,
+   * so both boards play the same game for the same seed.
+   */
+  public void addRandomTile() {
+    this.board = addRandomTile(this.board, this.random);
+  }
+
+  /**
+   * Adds a random tile (of value 2 or 4) to a random empty space of an
+   * encoded board
+   * @param long board - the encoded board, must have an empty tile
+   * @param Random random - random generator
+   * @return long - the board with the new tile
+   */
+  static long addRandomTile(long board, Random random) {
+    int count = emptyCount(board);
+
+    //generates random numbers for location of the new tile and the
+    //probability of getting a certain value for the tile
+    int location = random.nextInt(count);
+    int value = random.nextInt(100);
+    long exponent = (value < SPAWN_TWO_PROBABILITY) ? 1L : 2L;
+
+    //walks through the nibbles and fills the chosen empty one
+    for (int shift = 0; shift < 64; shift += 4) {
+      if (((board >>> shift) & NIBBLE_MASK) == 0) {
+        if (location == 0) {
+          return board | (exponent << shift);
+        }
+        location--;
+      }
+    }
+    return board;
+  }
+
+  /**
+   * Counts the empty tiles of an encoded board
+   * @param long board - the encoded board
+   * @return int - the number of empty tiles
+   */
+  public static int emptyCount(long board) {
+    //folds every nibble onto its lowest bit, a set bit means a tile
+    long occupied = board | (board >>> 1) | (board >>> 2) | (board >>> 3);
+    return 16 - Long.bitCount(occupied & 0x1111111111111111L);
+  }
+
+  /**
+   * Rotates the board by 90 degrees clockwise or 90 degrees
+   * counter-clockwise.
+   * @param boolean rotateClockwise - decides which direction should
+   * the board be rotated
+   */
+  public void rotate(boolean rotateClockwise) {
+    if (rotateClockwise) {
+      this.board = mirrorRows(transpose(this.board));
+    }
+    else {
+      this.board = mirrorColumns(transpose(this.board));
+    }
+  }
+
+  /**
+   * Transposes an encoded board (swaps rows and columns)
+   * @param long board - the encoded board
+   * @return long - the transposed board
+   */
+  static long transpose(long board) {
+    long a1 = board & 0xF0F00F0FF0F00F0FL;
+    long a2 = board & 0x0000F0F00000F0F0L;
+    long a3 = board & 0x0F0F00000F0F0000L;
+    long a = a1 | (a2 << 12) | (a3 >>> 12);
+    long b1 = a & 0xFF00FF0000FF00FFL;
+    long b2 = a & 0x00FF00FF00000000L;
+    long b3 = a & 0x00000000FF00FF00L;
+    return b1 | (b2 >>> 24) | (b3 << 24);
+  }
+
+  /**
+   * Reverses the order of the tiles inside every row
+   * @param long board - the encoded board
+   * @return long - the mirrored board
+   */
+  static long mirrorRows(long board) {
+    return ((board & 0x000F000F000F000FL) << 12) |
+      ((board & 0x00F000F000F000F0L) << 4) |
+      ((board >>> 4) & 0x00F000F000F000F0L) |
+      ((board >>> 12) & 0x000F000F000F000FL);
+  }
+
+  /**
+   * Reverses the order of the rows
+   * @param long board - the encoded board
+   * @return long - the mirrored board
+   */
+  static long mirrorColumns(long board) {
+    return (board << 48) | ((board & 0xFFFF0000L) << 16) |
+      ((board >>> 16) & 0xFFFF0000L) | (board >>> 48);
+  }
+
+  /**
+   * Applies one of the 8 symmetries of the square to an encoded board
+   * @param long board - the encoded board
+   * @param int symmetry - 0..7, bit 0 transposes, bit 1 mirrors the
+   *                       rows and bit 2 mirrors the columns
+   * @return long - the transformed board
+   */
+  static long transform(long board, int symmetry) {
+    if ((symmetry & 1) != 0) {
+      board = transpose(board);
+    }
+    if ((symmetry & 2) != 0) {
+      board = mirrorRows(board);
+    }
+    if ((symmetry & 4) != 0) {
+      board = mirrorColumns(board);
+    }
+    return board;
+  }
+
+  /**
+   * Moves tiles and increments in the game according passed in direction
+   *
+   * @param Direction direction - direction to which the move must be made
+   * @return boolean - true if the move is possible, false if not
+   */
+  public boolean move(Direction direction) {
+    long moved = MoveTables.move(this.board, direction);
+    if (moved == this.board) {
+      return false;
+    }
+    //saves the board and score before moving
+    this.prevBoard = this.board;
+    this.prevScore = this.score;
+    this.score += MoveTables.score(this.board, direction);
+    this.board = moved;
+    return true;
+  }
+
+  /**
+   * Reverses the order of the tiles of an encoded row
+   * @param int line - the 16 bit row
+   * @return int - the reversed row
+   */
+  static int reverseRow(int line) {
+    return ((line & 0xF) << 12) | ((line & 0xF0) << 4) |
+      ((line >>> 4) & 0xF0) | ((line >>> 12) & 0xF);
+  }
+
+  /**
+   * Checks if a move to a specific direction is possible
+   * @param Direction direction - the direction to be checked
+   * @return boolean - true if the move is possible, false if not
+   */
+  public boolean canMove(Direction direction) {
+    return MoveTables.canMove(this.board, direction);
+  }
+
+  /**
+   * Checks if there are no more possible moves, i.e if the game is over
+   * @return boolean - true if there are no possible moves, false if there are
+   */
+  public boolean isGameOver() {
+    return MoveTables.isGameOver(this.board);
+  }
+
+  /**
+   * Returns a decoded copy of the tiles, changing it doesn't change
+   * the board
+   * @return int[][] - the tile values, 0 for empty tiles
+   */
+  public int[][] getGrid() {
+    int[][] grid = new int[4][4];
+    for (int row = 0; row < 4; row++) {
+      for (int column = 0; column < 4; column++) {
+        grid[row][column] = getTile(row, column);
+      }
+    }
+    return grid;
+  }
+
+  /**
+   * Returns the value of a single tile
+   * @param int row - row of the tile
+   * @param int column - column of the tile
+   * @return int - the tile value, 0 for an empty tile
+   */
+  public int getTile(int row, int column) {
+    int exponent = (int) ((this.board >>> (4 * (row * 4 + column))) &
+                          NIBBLE_MASK);
+    return exponent == 0 ? 0 : 1 << exponent;
+  }
+
+// Return the score
+  public long getScore() {
+    return score;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder outputString = new StringBuilder();
+    outputString.append(String.format("Score: %d\n", score));
+    for (int row = 0; row < GRID_SIZE; row++) {
+      for (int column = 0; column < GRID_SIZE; column++)
+        outputString.append(getTile(row, column) == 0 ? "    -" :
+                              String.format("%5d", getTile(row, column)));
+
+      outputString.append("\n");
+    }
+    return outputString.toString();
+  }
+
+  /*
+   * Reverts one move back
+   */
+  public void undo() {
+    //nothing to revert if no move has been made yet
+    if (this.prevScore < 0) {
+      return;
+    }
+    this.board = this.prevBoard;
+    this.score = this.prevScore;
+  }
+}
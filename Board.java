@@ -23,8 +23,8 @@
  * The sample board shows the index values for the columns and rows
  */
 
-import java.util.ArrayList;
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
 
 /** 
@@ -37,12 +37,49 @@ public class Board {
   public final int TWO_PROBABILITY = 90;
   public final int GRID_SIZE;
   
+  //number of moves that can be undone by default
+  public static final int DEFAULT_UNDO_DEPTH = 16;
+  
+  //bits of the directions in the mask of legalMoves()
+  private static final int UP_BIT = 1 << Direction.UP.ordinal();
+  private static final int DOWN_BIT = 1 << Direction.DOWN.ordinal();
+  private static final int LEFT_BIT = 1 << Direction.LEFT.ordinal();
+  private static final int RIGHT_BIT = 1 << Direction.RIGHT.ordinal();
+  private static final int ALL_MOVES = UP_BIT | DOWN_BIT | LEFT_BIT | 
+    RIGHT_BIT;
+  
+  //columns moved together by a vertical move, their state stays in L1;
+  //the row by row sweep pays off once the tiles outgrow the caches
+  private static final int COLUMN_STRIP = 512;
+  
+  //fewest lines moved by one thread of a parallel move
+  private static final int MIN_TASK_LINES = 64;
   
   private final Random random;
-  private int[][] grid;
-  private int score;
-  private int[][] prevGrid;
-  private int prevScore = -1;
+  //exponent of every tile in row-major order, 0 for an empty tile; one 
+  //byte per tile instead of an int keeps large boards small
+  private final byte[] tiles;
+  private long score;
+  private UndoHistory history;
+  private EmptyCellIndex emptyCells;
+  //mask of legalMoves(), -1 when a tile changed since it was computed
+  private int legalMoves = -1;
+  //Zobrist hash of the tiles, updated with every changed tile
+  private long hash;
+  //tiles changed since takeChangedTiles(), null until tracking starts
+  private long[] changedBits;
+  private int[] changedCells;
+  private int changedCount;
+  //processors moves are split across in the common ForkJoinPool, read 
+  //once by setParallelMoves(), 0 if moves stay on the calling thread; 
+  //the chunks are created by the first parallel move
+  private int moveProcessors;
+  private LineTask[] lineTasks;
+  //state of every column of a strip during a vertical move, created by 
+  //the first one
+  private int[] stripTargets;
+  private int[] stripPending;
+  private int[] stripFrom;
   
   /** Constructs a game board with the specified size
    * @param int boardSize: the size of the game board
@@ -52,14 +89,16 @@ public class Board {
     
     this.random = random;
     GRID_SIZE = boardSize;
-    this.grid = new int[GRID_SIZE][GRID_SIZE];
-    this.prevGrid = new int[GRID_SIZE][GRID_SIZE];
-    this.prevScore = -1;
+    this.tiles = new byte[GRID_SIZE * GRID_SIZE];
+    this.history = new UndoHistory(DEFAULT_UNDO_DEPTH, GRID_SIZE * GRID_SIZE);
+    this.emptyCells = new EmptyCellIndex(this.tiles);
     this.score = 0;
     for (int i = 0; i < NUM_START_TILES; i++) {
       this.addRandomTile();
       
     }
+    //the start tiles aren't a step that can be undone
+    this.history = new UndoHistory(DEFAULT_UNDO_DEPTH, GRID_SIZE * GRID_SIZE);
   }
   /** 
    * Constructs a game board from an input file
@@ -67,30 +106,94 @@ public class Board {
    * @param Random random: random generator  
    */
   public Board(String inputBoard, Random random) throws IOException {
-    this.random = random;
-    File inputBoardFile = new File (inputBoard);
-    Scanner scanner = new Scanner(inputBoardFile);
-    GRID_SIZE = scanner.nextInt();
-    this.grid = new int[GRID_SIZE][GRID_SIZE];
-    this.prevGrid = new int[GRID_SIZE][GRID_SIZE];
-    this.prevScore = -1;
-    this.score = scanner.nextInt();
-    
-    //nested for loops for assigning tile values
-    for (int row = 0; row < GRID_SIZE; row++) {
-      for (int column = 0; column < GRID_SIZE; column++) {
-        grid[row][column] = scanner.nextInt();
-      }
+    this(loadBoard(inputBoard, random), random);
+  }
+  
+  /** 
+   * Reads a board file with BoardParser, in a single pass
+   * @param String inputBoard: the name of the input file
+   * @param Random random: random generator  
+   * @return Board - the loaded board
+   */
+  private static Board loadBoard(String inputBoard, Random random) 
+    throws IOException {
+    BoardParser.Result result = BoardParser.parse(inputBoard, random);
+    if (result.getBoard() == null) {
+      throw new IOException(inputBoard + ":" + result.getErrors().get(0));
     }
-    scanner.close();
+    return result.getBoard();
   }
   
   /** 
-   * Getter method for the instance variable prevScore
-   * @return int prevScore
+   * Constructs a copy of another game board, including its undo state
+   * @param Board other: the board to copy
+   * @param Random random: random generator of the copy
    */
-  public int getPrevScore() {
-    return this.prevScore;
+  public Board(Board other, Random random) {
+    this.random = random;
+    GRID_SIZE = other.GRID_SIZE;
+    this.tiles = other.tiles.clone();
+    this.history = new UndoHistory(other.history);
+    this.score = other.score;
+    this.emptyCells = new EmptyCellIndex(other.emptyCells);
+    this.hash = other.hash;
+    this.moveProcessors = other.moveProcessors;
+  }
+  
+  /** 
+   * Constructs a game board from tile exponents, as stored by the 
+   * binary board format
+   * @param int boardSize: the size of the game board
+   * @param long score: the score of the game
+   * @param byte[] exponents: exponent of every tile in row-major order, 
+   *                          0 for an empty tile
+   * @param Random random: random generator  
+   */
+  Board(int boardSize, long score, byte[] exponents, Random random) {
+    this.random = random;
+    GRID_SIZE = boardSize;
+    this.tiles = Arrays.copyOf(exponents, GRID_SIZE * GRID_SIZE);
+    this.history = new UndoHistory(DEFAULT_UNDO_DEPTH, GRID_SIZE * GRID_SIZE);
+    this.score = score;
+    this.emptyCells = new EmptyCellIndex(this.tiles);
+    this.hash = this.computeHash();
+  }
+  
+  /** 
+   * Copies the exponent of every tile, in row-major order, 0 for an 
+   * empty tile
+   * @param byte[] target: array of at least GRID_SIZE * GRID_SIZE bytes
+   */
+  void copyExponents(byte[] target) {
+    System.arraycopy(this.tiles, 0, target, 0, this.tiles.length);
+  }
+  
+  /** 
+   * Returns the score before the last move that can be undone
+   * @return long - the score, -1 if there is nothing to undo
+   */
+  public long getPrevScore() {
+    return this.history.lastScoreBefore();
+  }
+  
+  /** 
+   * Sets how many moves can be undone, forgets the current history
+   * @param int depth: number of moves, at least 1
+   */
+  public void setUndoDepth(int depth) {
+    this.history = new UndoHistory(depth, GRID_SIZE * GRID_SIZE);
+  }
+  
+  /** 
+   * Sets whether moves split the lines of the board across the common 
+   * ForkJoinPool. Off by default, it only pays off for large boards on 
+   * several cores; moves that fill a MoveResult always run on one thread
+   * @param boolean parallel: true to move in parallel
+   */
+  public void setParallelMoves(boolean parallel) {
+    this.moveProcessors = parallel ? 
+      Runtime.getRuntime().availableProcessors() : 0;
+    this.lineTasks = null;
   }
   
   /** 
@@ -108,157 +211,309 @@ public class Board {
     for(int row = 0; row < this.GRID_SIZE; row++) {
       writer.println();
       for (int column = 0; column < this.GRID_SIZE; column++) {
-        writer.print(this.grid[row][column] + " "); 
+        writer.print(this.getTile(row, column) + " "); 
       }
     }
     writer.println();
     writer.close();
   }
   
+  /** 
+   * Returns the number of empty tiles, without scanning the board
+   * @return int - the number of empty tiles
+   */
+  public int emptyCount() {
+    return this.emptyCells.count();
+  }
+  
   /** 
    * Adds a random tile (of value 2 or 4) to a random empty space
    * on the board
    */  
   
   public void addRandomTile() {
-    int count = 0;
-    //looping through all tiles to find number of empty spots
-    for (int row = 0; row < this.GRID_SIZE; row++) {
-      for (int column = 0; column < this.GRID_SIZE; column++) {
-        if (this.grid[row][column]== 0) count++;
-      }
-    }
-    
+    this.addRandomTile(null);
+  }
+  
+  /** 
+   * Adds a random tile (of value 2 or 4) to a random empty space
+   * on the board, and records it as the tile added after a move
+   * @param MoveResult result - receives the place and value of the tile,
+   *                            may be null
+   */  
+  public void addRandomTile(MoveResult result) {
     //generates random numbers for location of the new tile and the
     //probability of getting a certain value for the tile
-    int location = this.random.nextInt(count);
+    int location = this.random.nextInt(this.emptyCells.count());
     int value = this.random.nextInt(100);
-    int count2 = -1;
     
-    //looping though all tiles to place the new tile, aborts after placing tile
-    for (int row = 0; row < this.GRID_SIZE; row++) {
-      for (int column = 0; column < this.GRID_SIZE; column++) {
-        if (this.grid[row][column]== 0) count2++;
-        if (count2 == location) {
-          if (value < TWO_PROBABILITY) { grid[row][column] = 2; }
-          else { grid[row][column] = 4; }
-          return;
-        }
-      }
+    //finds the location-th empty tile in row-major order
+    int cell = this.emptyCells.select(location);
+    this.placeTile(cell, (value < TWO_PROBABILITY) ? 2 : 4, result);
+  }
+  
+  /** 
+   * Adds a given tile to an empty space of the board, the way 
+   * addRandomTile() adds its random one; used to play back games whose
+   * added tiles were stored
+   * @param int cell - index of the empty tile, row * GRID_SIZE + column
+   * @param int tile - value of the new tile
+   * @param MoveResult result - receives the place and value of the tile,
+   *                            may be null
+   */
+  void placeTile(int cell, int tile, MoveResult result) {
+    if (!this.emptyCells.isEmpty(cell)) {
+      throw new IllegalArgumentException("Tile " + cell + " isn't empty");
+    }
+    //the tile belongs to the last move, or is a step of its own
+    if (!this.history.isOpen()) {
+      this.history.beginStep(this.score);
+    }
+    this.setExponent(cell, exponentOf(tile));
+    this.history.close();
+    if (result != null) {
+      result.setSpawn(cell, tile);
     }
   }
   
   /** 
    * Rotates the board by 90 degrees clockwise or 90 degrees 
-   * counter-clockwise. 
+   * counter-clockwise, in place. 
    * @param boolean rotateClockwise - decides which direction should 
    * the board be rotated
    */
   
   public void rotate(boolean rotateClockwise) {
+    int size = this.GRID_SIZE;
+    int last = size - 1;
     
-    int[][] copy = new int[this.GRID_SIZE][this.GRID_SIZE];
+    //the rotation is a step of the history of its own
+    this.history.beginStep(this.score);
     
-    //for loop for copying the calling object
-    for (int row = 0; row < this.GRID_SIZE; row++) {
-      for (int column = 0; column < this.GRID_SIZE; column++) {
-        copy[row][column] = this.grid[row][column];
+    //every ring of the board is rotated in cycles of 4 tiles, so every 
+    //tile is written once
+    for (int row = 0; row < size / 2; row++) {
+      for (int column = row; column < last - row; column++) {
+        int topLeftCell = row * size + column;
+        int topRightCell = column * size + last - row;
+        int bottomRightCell = (last - row) * size + last - column;
+        int bottomLeftCell = (last - column) * size + row;
+        int topLeft = this.tiles[topLeftCell];
+        int topRight = this.tiles[topRightCell];
+        int bottomRight = this.tiles[bottomRightCell];
+        int bottomLeft = this.tiles[bottomLeftCell];
+        
+        //for rotating clockwise
+        if (rotateClockwise) {
+          this.setExponent(topLeftCell, bottomLeft);
+          this.setExponent(topRightCell, topLeft);
+          this.setExponent(bottomRightCell, topRight);
+          this.setExponent(bottomLeftCell, bottomRight);
+        }
+        
+        //for rotating counterclockwise
+        else {
+          this.setExponent(topLeftCell, topRight);
+          this.setExponent(topRightCell, bottomRight);
+          this.setExponent(bottomRightCell, bottomLeft);
+          this.setExponent(bottomLeftCell, topLeft);
+        }
       }
     }
-    
-    //for rotating clockwise
-    if (rotateClockwise) {    
-      //for loops for copying from the copy to the calling object
-      for (int sourceColumn = 0, targetRow = 0; sourceColumn < this.GRID_SIZE;
-           sourceColumn++, targetRow++) {
-             for (int sourceRow = 0, targetColumn = this.GRID_SIZE - 1;
-                  sourceRow < this.GRID_SIZE; sourceRow++, targetColumn--) {
-                    this.grid[targetRow][targetColumn] = copy[sourceRow][sourceColumn];
-                  }
-           }
+    this.history.close();
+  }
+  
+  /** 
+   * Swaps the rows and the columns of the board, in place
+   */
+  public void transpose() {
+    this.history.beginStep(this.score);
+    int size = this.GRID_SIZE;
+    for (int row = 0; row < size; row++) {
+      for (int column = row + 1; column < size; column++) {
+        int upper = this.tiles[row * size + column];
+        this.setExponent(row * size + column, this.tiles[column * size + row]);
+        this.setExponent(column * size + row, upper);
+      }
     }
-    
-    //for rotating counterclockwise
-    else if (rotateClockwise == false) {
-      //for loops for copying from the copy to the calling object
-      for (int sourceRow = 0, targetColumn = 0; sourceRow < this.GRID_SIZE;
-           sourceRow++, targetColumn++) {
-             for (int sourceColumn = 0, targetRow = this.GRID_SIZE - 1;
-                  sourceColumn < this.GRID_SIZE; sourceColumn++, targetRow--) {
-                    this.grid[targetRow][targetColumn] = copy[sourceRow][sourceColumn];
-                  }
-           }
+    this.history.close();
+  }
+  
+  /** 
+   * Reverses the order of the tiles inside every row, in place
+   */
+  public void mirrorRows() {
+    this.history.beginStep(this.score);
+    int size = this.GRID_SIZE;
+    for (int line = 0; line < size * size; line += size) {
+      for (int column = 0, other = size - 1; column < other; 
+           column++, other--) {
+        int left = this.tiles[line + column];
+        this.setExponent(line + column, this.tiles[line + other]);
+        this.setExponent(line + other, left);
+      }
     }
+    this.history.close();
   }
   
   /** 
-   * Determines if the input file is in correct format 
-   * @param String inputFile - name of the input file
-   * @return boolean. True if the file is in correct format, false if it isn't.
+   * Reverses the order of the rows, in place
    */
+  public void mirrorColumns() {
+    this.history.beginStep(this.score);
+    int size = this.GRID_SIZE;
+    for (int row = 0, other = size - 1; row < other; row++, other--) {
+      for (int column = 0; column < size; column++) {
+        int cell = row * size + column;
+        int otherCell = other * size + column;
+        int upper = this.tiles[cell];
+        this.setExponent(cell, this.tiles[otherCell]);
+        this.setExponent(otherCell, upper);
+      }
+    }
+    this.history.close();
+  }
   
-  public static boolean isInputFileCorrectFormat(String inputFile) {
-    //The try and catch block are used to handle any exceptions
-    
-    try {
-      //checks if the file exists
-      File inputFileObject = new File(inputFile);
-      Scanner scanner = new Scanner(inputFileObject);
-      
-      //checks if the grid size is a valid number
-      int boardSize = scanner.nextInt();
-      if (boardSize > 2) {
-        System.out.println("Board size number valid");
+  /** 
+   * Applies one of the 8 symmetries of the square in place, like 
+   * BitBoard.transform(). Every symmetry is a single step of the undo 
+   * history and writes every tile at most once.
+   * @param int symmetry - 0..7, bit 0 transposes, bit 1 mirrors the 
+   *                       rows and bit 2 mirrors the columns
+   */
+  public void transform(int symmetry) {
+    switch (symmetry & 7) {
+    case 1: this.transpose(); break;
+    case 2: this.mirrorRows(); break;
+    case 3: this.rotate(true); break;
+    case 4: this.mirrorColumns(); break;
+    case 5: this.rotate(false); break;
+    case 6: this.rotateHalf(); break;
+    case 7: this.transposeAnti(); break;
+    }
+  }
+  
+  /** 
+   * Rotates the board by 180 degrees, in place
+   */
+  private void rotateHalf() {
+    this.history.beginStep(this.score);
+    for (int cell = 0, other = this.tiles.length - 1; cell < other; 
+         cell++, other--) {
+      int tile = this.tiles[cell];
+      this.setExponent(cell, this.tiles[other]);
+      this.setExponent(other, tile);
+    }
+    this.history.close();
+  }
+  
+  /** 
+   * Mirrors the board on its other diagonal, in place
+   */
+  private void transposeAnti() {
+    int size = this.GRID_SIZE;
+    int last = size - 1;
+    this.history.beginStep(this.score);
+    for (int row = 0; row < size; row++) {
+      for (int column = 0; column < last - row; column++) {
+        int cell = row * size + column;
+        int other = (last - column) * size + last - row;
+        int tile = this.tiles[cell];
+        this.setExponent(cell, this.tiles[other]);
+        this.setExponent(other, tile);
       }
-      
-      else {
-        System.out.println("Board size number not valid");
-        return false;}
-      
-      //checks if the score is a valid number (and is actually a number)
-      if (scanner.hasNextInt()) {
-        int score = scanner.nextInt();
-        if (score >= 0 && score % 2 == 0) {
-          System.out.println("Score valid");
-        }
-        else { 
-          System.out.println("Score not valid");
-          return false;
-        }
+    }
+    this.history.close();
+  }
+  
+  /** 
+   * Finds the symmetry that gives the smallest board, comparing the 
+   * tiles in row-major order. Boards that are symmetries of each other 
+   * have the same canonical form, so they can be stored once.
+   * @return int - the symmetry for transform(), 0..7
+   */
+  public int canonicalSymmetry() {
+    int best = 0;
+    for (int symmetry = 1; symmetry < 8; symmetry++) {
+      if (this.compareSymmetries(symmetry, best) < 0) {
+        best = symmetry;
       }
-      else { 
-        System.out.println("Score not valid");
-        return false;
+    }
+    return best;
+  }
+  
+  /** 
+   * Creates the canonical form of the board, the smallest of its 8 
+   * symmetries, with the same score and an empty undo history
+   * @return Board - the new board, this board isn't changed
+   */
+  public Board canonicalForm() {
+    return new Board(this, this.canonicalSymmetry());
+  }
+  
+  /** 
+   * Constructs a transformed copy of another game board, without its 
+   * undo history
+   * @param Board other: the board to copy
+   * @param int symmetry: the symmetry to apply, see transform()
+   */
+  private Board(Board other, int symmetry) {
+    this.random = other.random;
+    GRID_SIZE = other.GRID_SIZE;
+    this.tiles = new byte[GRID_SIZE * GRID_SIZE];
+    this.history = new UndoHistory(DEFAULT_UNDO_DEPTH, GRID_SIZE * GRID_SIZE);
+    this.score = other.score;
+    for (int row = 0, cell = 0; row < GRID_SIZE; row++) {
+      for (int column = 0; column < GRID_SIZE; column++, cell++) {
+        this.tiles[cell] = (byte) other.tileAfter(symmetry, row, column);
       }
-      
-      //checks if everything in the board is valid
-      for (int i = 0; i < boardSize*boardSize; i++) {
-        if (scanner.hasNextInt()) { 
-          int boardElement = scanner.nextInt();
-          if (boardElement >= 0 && ((boardElement - 1) & boardElement) == 0) {
-            System.out.println("Tile number " + (i + 1) + " is valid");
-          }
-          else { 
-            System.out.println("One of the tiles have invalid value");
-            return false;
-          } 
+    }
+    this.emptyCells = new EmptyCellIndex(this.tiles);
+    this.hash = this.computeHash();
+  }
+  
+  /** 
+   * Compares the boards two symmetries would give, tile by tile
+   * @return int - negative if the first one is smaller, 0 if equal
+   */
+  private int compareSymmetries(int first, int second) {
+    for (int row = 0; row < this.GRID_SIZE; row++) {
+      for (int column = 0; column < this.GRID_SIZE; column++) {
+        int difference = Integer.compare(this.tileAfter(first, row, column),
+                                         this.tileAfter(second, row, column));
+        if (difference != 0) {
+          return difference;
         }
-        else {
-          System.out.println("One of the tiles have invalid value");
-          return false;}
       }
-      
-      //checks if there are anything extra in the file
-      if (scanner.hasNext()) {
-        System.out.println("Error: There are extra content in the file");
-        return false;
-      }
-      
-      scanner.close();
-      return true;
-    } catch (Exception e) {
-      return false;
     }
+    return 0;
+  }
+  
+  /** 
+   * Returns the exponent of the tile a symmetry would move to a 
+   * position, without transforming the board
+   */
+  private int tileAfter(int symmetry, int row, int column) {
+    if ((symmetry & 4) != 0) {
+      row = this.GRID_SIZE - 1 - row;
+    }
+    if ((symmetry & 2) != 0) {
+      column = this.GRID_SIZE - 1 - column;
+    }
+    return ((symmetry & 1) != 0) ? this.tiles[column * this.GRID_SIZE + row] : 
+      this.tiles[row * this.GRID_SIZE + column];
+  }
+  
+  /** 
+   * Determines if the input file is in correct format 
+   * @param String inputFile - name of the input file
+   * @return boolean. True if the file is in correct format, false if it isn't.
+   */
+  
+  public static boolean isInputFileCorrectFormat(String inputFile) {
+    //BoardParser reports every problem with its line and column, see 
+    //BoardParser.validate() for the details
+    return BoardParser.validate(inputFile).isEmpty();
   }
   
   /** 
@@ -268,299 +523,684 @@ public class Board {
    * @return boolean - true if the move is possible, false if not
    */
   public boolean move(Direction direction) {
+    return this.move(direction, null);
+  }
+  
+  /** 
+   * Moves tiles and increments in the game according passed in direction,
+   * and records which tiles slid and merged
+   * 
+   * @param Direction direction - direction to which the move must be made
+   * @param MoveResult result - receives the slides, merges and score of 
+   *                            the move, may be null
+   * @return boolean - true if the move is possible, false if not
+   */
+  public boolean move(Direction direction, MoveResult result) {
+    if (result != null) {
+      result.clear(null);
+    }
     if (this.canMove(direction) == false) {
       System.out.println("Can't move to that direction, pick another move.");
       return false;
     }
-    //saves the board and score before moving
-    this.prevScore = this.score;
-    for (int row = 0; row < this.GRID_SIZE; row++) {
-      for (int column = 0; column < this.GRID_SIZE; column++) {
-        this.prevGrid[row][column] = this.grid[row][column];
-      }
+    if (result != null) {
+      result.clear(direction);
+    }
+    //starts a step of the history, the tiles the move changes are 
+    //recorded as they are written, the next random tile is added to it
+    this.history.beginStep(this.score);
+    
+    //moves in parallel when asked to, unless the slides and merges must 
+    //be recorded in order
+    if (result == null && this.moveProcessors > 1) {
+      this.moveParallel(direction);
+      return true;
     }
     
     //invokes helper methods according to direction parameter
     switch(direction) {
-    case LEFT: this.moveLeft(); break;
-    case RIGHT: this.moveRight(); break;
-    case UP: this.moveUp(); break;
-    case DOWN: this.moveDown(); break;
+    case LEFT: this.moveLeft(result); break;
+    case RIGHT: this.moveRight(result); break;
+    case UP: this.moveUp(result); break;
+    case DOWN: this.moveDown(result); break;
     }
     return true;
   }
   
   /** 
-   * Moves tiles left and increments score accordingly
+   * Moves the tiles with the lines split into chunks across the common 
+   * ForkJoinPool, in two rounds. First the chunks move their lines and 
+   * keep a list of their changes, the score they gained and the change 
+   * of the hash. Then, once the journal has room for all changes, every 
+   * chunk copies its list into its own part of the undo history and 
+   * reads its own part of the empty tile index again.
+   * 
+   * @param Direction direction - direction to which the move must be made
    */
-  private void moveLeft() {
+  private void moveParallel(Direction direction) {
+    if (this.lineTasks == null) {
+      int size = this.GRID_SIZE;
+      int words = (size * size + 63) >>> 6;
+      int chunks = Math.max(1, Math.min(size / MIN_TASK_LINES, 
+                                        4 * this.moveProcessors));
+      this.lineTasks = new LineTask[chunks];
+      for (int chunk = 0; chunk < chunks; chunk++) {
+        this.lineTasks[chunk] = new LineTask(
+          (int) ((long) size * chunk / chunks),
+          (int) ((long) size * (chunk + 1) / chunks),
+          (int) ((long) words * chunk / chunks),
+          (int) ((long) words * (chunk + 1) / chunks));
+      }
+    }
     
-    int rightNumber, leftNumber = 0;
+    int changes = 0;
+    for (LineTask task : this.lineTasks) {
+      task.start(direction);
+    }
+    ForkJoinTask.invokeAll(this.lineTasks);
+    for (LineTask task : this.lineTasks) {
+      changes += task.count;
+    }
     
-    //looping through the board
-    for(int row = 0; row < this.GRID_SIZE; row++) {
-      //ArrayList for storing a row of the board
-      ArrayList<Integer> arrList = new ArrayList<Integer>();
-      for (int column = 0; column < this.GRID_SIZE; column++) {
-        
-        //removing 0s and copying rest to an arrayList
-        if (this.grid[row][column] != 0) {
-          arrList.add(this.grid[row][column]);
-        }
+    //hands every chunk its part of the journal, -1 if the move isn't 
+    //recorded
+    long position = this.history.reserve(changes);
+    for (LineTask task : this.lineTasks) {
+      this.score += task.gained;
+      this.hash ^= task.hashDelta;
+      task.finish(position);
+      if (position >= 0) {
+        position += task.count;
       }
-      //checking if adjacent numbers are of the same value, 
-      //adds them if they are and increments score
-      for (int i = 0; i < arrList.size()-1; i++) { 
-        leftNumber = arrList.get(i);
-        rightNumber = arrList.get(i+1);
-        if (leftNumber == rightNumber) {
-          int sum = leftNumber + rightNumber;
-          arrList.set(i, sum);
-          arrList.remove(i+1);
-          this.score += sum;
+    }
+    ForkJoinTask.invokeAll(this.lineTasks);
+    this.emptyCells.rebuildTree();
+    this.legalMoves = -1;
+    
+    //only boards drawn by the GUI track their changed tiles
+    if (this.changedBits != null) {
+      for (LineTask task : this.lineTasks) {
+        for (int i = 0; i < task.count; i++) {
+          this.markChanged(task.cells[i]);
         }
       }
-      //adding missing 0s
-      for (int i = arrList.size(); i < this.GRID_SIZE; i++) {
-        arrList.add(0);
-      }
-      //copying arraylist to board
-      for (int column2 = 0; column2 < this.GRID_SIZE; column2++) {
-        this.grid[row][column2] = arrList.get(column2);
-      }  
+    }
+  }
+  
+  /** 
+   * Moves tiles left and increments score accordingly
+   */
+  private void moveLeft(MoveResult result) {
+    for (int row = 0; row < this.GRID_SIZE; row++) {
+      this.score += this.mergeLine(row * this.GRID_SIZE, 1, result, null);
     }
   }
   
   /** 
    * Moves tiles right and increments score accordingly
    */
-  private void moveRight() {
-    
-    int rightNumber, leftNumber = 0;
+  private void moveRight(MoveResult result) {
+    for (int row = 0; row < this.GRID_SIZE; row++) {
+      this.score += this.mergeLine(row * this.GRID_SIZE + this.GRID_SIZE - 1,
+                                   -1, result, null);
+    }
+  }
+  
+  /** Moves tiles up and increments score accordingly
+   */
+  private void moveUp(MoveResult result) {
+    for (int first = 0; first < this.GRID_SIZE; first += COLUMN_STRIP) {
+      this.score += this.mergeColumns(first, Math.min(COLUMN_STRIP, 
+        this.GRID_SIZE - first), this.GRID_SIZE, result, null);
+    }
+  }
+  
+  /** 
+   * Moves tiles down and increments score accordingly
+   */
+  private void moveDown(MoveResult result) {
+    int lastRow = (this.GRID_SIZE - 1) * this.GRID_SIZE;
+    for (int first = 0; first < this.GRID_SIZE; first += COLUMN_STRIP) {
+      this.score += this.mergeColumns(lastRow + first, Math.min(COLUMN_STRIP, 
+        this.GRID_SIZE - first), -this.GRID_SIZE, result, null);
+    }
+  }
+  
+  /** 
+   * Slides and merges one row or column of the board in place and 
+   * increments score accordingly. The line is walked from the tile the 
+   * tiles move towards, so every tile is written at or before the place 
+   * it was read from and no extra storage is needed.
+   * 
+   * @param int start - index of the first tile of the line
+   * @param int step - index increment between tiles of the line, 1 or 
+   *                   GRID_SIZE, negative to walk backwards
+   * @param MoveResult result - receives the slides and merges, may be null
+   * @param LineTask task - the chunk of a parallel move keeping the 
+   *                        changes, null to write through setExponent()
+   * @return long - the score gained
+   */
+  private long mergeLine(int start, int step, MoveResult result, 
+                         LineTask task) {
+    byte[] tiles = this.tiles;
+    int target = start;
+    int pending = 0;
+    int pendingFrom = 0;
+    long gained = 0;
     
-    //looping through the board (from up to down and from right to left)
-    for(int row = 0; row < this.GRID_SIZE; row++) {
-      //ArrayList for storing a row of the board
-      ArrayList<Integer> arrList = new ArrayList<Integer>();
-      for (int column = this.GRID_SIZE-1; column >= 0 ; column--) {
-        
-        //removing 0s and copying rest to an arrayList
-        if (this.grid[row][column] != 0) {
-          arrList.add(this.grid[row][column]);
+    //looping through the line, pending is the exponent of the last tile 
+    //not yet written and pendingFrom the place it was read from
+    for (int i = 0, cell = start; i < this.GRID_SIZE; i++, cell += step) {
+      int tile = tiles[cell];
+      if (tile == 0) {
+        continue;
+      }
+      //adds the tiles if they are of the same value and increments score
+      if (pending == tile) {
+        this.writeTile(target, tile + 1, task);
+        gained += 1L << (tile + 1);
+        if (result != null) {
+          if (pendingFrom != target) {
+            result.addSlide(pendingFrom, target);
+          }
+          result.addSlide(cell, target);
+          result.addMerge(target, tile + 1);
         }
+        target += step;
+        pending = 0;
       }
-      //checking if adjacent numbers are of the same value, adds them if they are
-      //and increments score
-      for (int i = 0; i < arrList.size()-1; i++) { 
-        leftNumber = arrList.get(i);
-        rightNumber = arrList.get(i+1);
-        if (leftNumber == rightNumber) {
-          int sum = leftNumber + rightNumber;
-          arrList.set(i, sum);
-          arrList.remove(i+1);
-          this.score += sum;
+      else {
+        if (pending != 0) {
+          this.writeTile(target, pending, task);
+          if (result != null && pendingFrom != target) {
+            result.addSlide(pendingFrom, target);
+          }
+          target += step;
         }
+        pending = tile;
+        pendingFrom = cell;
       }
-      //adding missing 0s
-      for (int i = arrList.size(); i < this.GRID_SIZE; i++) {
-        arrList.add(0);
+    }
+    if (pending != 0) {
+      this.writeTile(target, pending, task);
+      if (result != null && pendingFrom != target) {
+        result.addSlide(pendingFrom, target);
       }
-      //copying arraylist to board
-      for (int column2 = 0, column3 = this.GRID_SIZE-1; column2 < this.GRID_SIZE; 
-           column2++, column3--) {
-             this.grid[row][column2] = arrList.get(column3);
-           }  
+      target += step;
     }
+    
+    //adding missing 0s
+    int end = start + this.GRID_SIZE * step;
+    while (target != end) {
+      this.writeTile(target, 0, task);
+      target += step;
+    }
+    return gained;
   }
   
-  
-  /** Moves tiles up and increments score accordingly
+  /** 
+   * Slides and merges a strip of up to COLUMN_STRIP neighbouring columns 
+   * in place, like mergeLine() does for a single line. Walking one 
+   * column at a time would jump a whole row ahead with every tile, so 
+   * the strip is swept row by row instead, in memory order, keeping the 
+   * state of every column in small arrays.
+   * 
+   * @param int start - index of the first tile of the strip's first 
+   *                    column, in the row the tiles move towards
+   * @param int width - number of columns, at most COLUMN_STRIP
+   * @param int step - GRID_SIZE, negative to move the tiles down
+   * @param MoveResult result - receives the slides and merges, may be null
+   * @param LineTask task - the chunk of a parallel move keeping the 
+   *                        changes, null to write through setExponent()
+   * @return long - the score gained
    */
-  private void moveUp() {
-    
-    int upperNumber, lowerNumber = 0;
+  private long mergeColumns(int start, int width, int step, 
+                            MoveResult result, LineTask task) {
+    int size = this.GRID_SIZE;
+    if (task == null && this.stripTargets == null) {
+      int length = Math.min(COLUMN_STRIP, size);
+      this.stripTargets = new int[length];
+      this.stripPending = new int[length];
+      this.stripFrom = new int[length];
+    }
+    byte[] tiles = this.tiles;
+    int[] targets = (task == null) ? this.stripTargets : task.stripTargets;
+    int[] pending = (task == null) ? this.stripPending : task.stripPending;
+    int[] from = (task == null) ? this.stripFrom : task.stripFrom;
+    long gained = 0;
+    for (int i = 0; i < width; i++) {
+      targets[i] = start + i;
+      pending[i] = 0;
+    }
     
-    //looping through the board
-    for(int column = 0; column < this.GRID_SIZE; column++) {
-      //ArrayList for storing a column of the board
-      ArrayList<Integer> arrList = new ArrayList<Integer>();
-      for (int row = 0; row < this.GRID_SIZE; row++) {
-        
-        //removing 0s and copying rest to an arrayList
-        if (this.grid[row][column] != 0) {
-          arrList.add(this.grid[row][column]);
+    //sweeping the rows, pending[i] is the exponent of the last tile of 
+    //column i not yet written and from[i] the place it was read from
+    for (int row = 0, line = start; row < size; row++, line += step) {
+      for (int i = 0; i < width; i++) {
+        int tile = tiles[line + i];
+        if (tile == 0) {
+          continue;
+        }
+        int target = targets[i];
+        //adds the tiles if they are of the same value and increments score
+        if (pending[i] == tile) {
+          this.writeTile(target, tile + 1, task);
+          gained += 1L << (tile + 1);
+          if (result != null) {
+            if (from[i] != target) {
+              result.addSlide(from[i], target);
+            }
+            result.addSlide(line + i, target);
+            result.addMerge(target, tile + 1);
+          }
+          targets[i] = target + step;
+          pending[i] = 0;
+        }
+        else {
+          if (pending[i] != 0) {
+            this.writeTile(target, pending[i], task);
+            if (result != null && from[i] != target) {
+              result.addSlide(from[i], target);
+            }
+            targets[i] = target + step;
+          }
+          pending[i] = tile;
+          from[i] = line + i;
         }
       }
-      //checking if adjacent numbers in the same column are of the same value, 
-      //adds them if they are and increments score
-      for (int i = 0; i < arrList.size()-1; i++) { 
-        upperNumber = arrList.get(i);
-        lowerNumber = arrList.get(i+1);
-        if (upperNumber == lowerNumber) {
-          int sum = upperNumber + lowerNumber;
-          arrList.set(i, sum);
-          arrList.remove(i+1);
-          this.score += sum;
+    }
+    
+    //writing the last tiles, pending[i] becomes the number of rows 
+    //column i filled
+    int filledRows = size;
+    for (int i = 0; i < width; i++) {
+      if (pending[i] != 0) {
+        this.writeTile(targets[i], pending[i], task);
+        if (result != null && from[i] != targets[i]) {
+          result.addSlide(from[i], targets[i]);
         }
+        targets[i] += step;
       }
-      //adding missing 0s
-      for (int i = arrList.size(); i < this.GRID_SIZE; i++) {
-        arrList.add(0);
+      pending[i] = (targets[i] - start - i) / step;
+      filledRows = Math.min(filledRows, pending[i]);
+    }
+    
+    //adding missing 0s, from the first row any column has left over
+    for (int row = filledRows, line = start + row * step; row < size; 
+         row++, line += step) {
+      for (int i = 0; i < width; i++) {
+        if (row >= pending[i]) {
+          this.writeTile(line + i, 0, task);
+        }
       }
-      //copying arraylist to board
-      for (int row2 = 0; row2 < this.GRID_SIZE; row2++) {
-        this.grid[row2][column] = arrList.get(row2);
-      }  
     }
+    return gained;
   }
   
   /** 
-   * Moves tiles down and increments score accordingly
+   * Writes a tile of a move, through setExponent() or into the changes 
+   * of a chunk of a parallel move
+   * @param int cell - index of the tile, row * GRID_SIZE + column
+   * @param int exponent - the new exponent of the tile, 0 for empty
+   * @param LineTask task - the chunk, null to use setExponent()
+   */
+  private void writeTile(int cell, int exponent, LineTask task) {
+    if (task == null) {
+      this.setExponent(cell, exponent);
+    }
+    else {
+      task.write(cell, exponent);
+    }
+  }
+  
+  /**
+   * Name: LineTask (class)
+   * Purpose: moves a chunk of the rows or columns of a parallel move and 
+   *          keeps its changes, then records them in its own part of the 
+   *          undo history and the empty tile index
    */
-  private void moveDown() {
+  @SuppressWarnings("serial") //tasks are never serialized
+  private final class LineTask extends RecursiveAction {
+    private final int first;
+    private final int last;
+    //words of the empty tile index this chunk reads again
+    private final int firstWord;
+    private final int lastWord;
+    private Direction direction;
+    //false while the lines are moved, true during the bookkeeping
+    private boolean moved;
+    private long journalPosition;
     
-    int upperNumber, lowerNumber = 0;
+    //changes of the chunk, in the order they were made; kept from move 
+    //to move so they only grow when a move changes more tiles
+    private int[] cells = new int[1024];
+    private byte[] oldExponents = new byte[1024];
+    private byte[] newExponents = new byte[1024];
+    private int count;
+    private long gained;
+    private long hashDelta;
     
-    //looping through the board from down to up and from left to right
-    for(int column = 0; column < this.GRID_SIZE; column++) {
-      //ArrayList for storing a column of a board
-      ArrayList<Integer> arrList = new ArrayList<Integer>();
-      for (int row = this.GRID_SIZE-1; row >= 0 ; row--) {
-        
-        //removing 0s and copying rest to an arrayList
-        if (this.grid[row][column] != 0) {
-          arrList.add(this.grid[row][column]);
+    //state of the columns of a strip, for vertical moves
+    private final int[] stripTargets;
+    private final int[] stripPending;
+    private final int[] stripFrom;
+    
+    /** 
+     * Constructs the chunk of lines first..last-1, rows for horizontal 
+     * moves and columns for vertical ones, and of the words 
+     * firstWord..lastWord-1 of the empty tile index
+     */
+    private LineTask(int first, int last, int firstWord, int lastWord) {
+      this.first = first;
+      this.last = last;
+      this.firstWord = firstWord;
+      this.lastWord = lastWord;
+      int length = Math.min(COLUMN_STRIP, last - first);
+      this.stripTargets = new int[length];
+      this.stripPending = new int[length];
+      this.stripFrom = new int[length];
+    }
+    
+    /** 
+     * Prepares the chunk to move its lines
+     */
+    private void start(Direction direction) {
+      this.reinitialize();
+      this.direction = direction;
+      this.moved = false;
+      this.count = 0;
+      this.gained = 0;
+      this.hashDelta = 0;
+    }
+    
+    /** 
+     * Prepares the chunk for the bookkeeping after all lines moved
+     * @param long journalPosition - where its changes go in the undo 
+     *                               history, -1 if they aren't recorded
+     */
+    private void finish(long journalPosition) {
+      this.reinitialize();
+      this.moved = true;
+      this.journalPosition = journalPosition;
+    }
+    
+    @Override
+    protected void compute() {
+      if (this.moved) {
+        if (this.journalPosition >= 0) {
+          history.write(this.journalPosition, this.cells, this.oldExponents,
+                        this.newExponents, this.count);
         }
+        emptyCells.rebuildWords(tiles, this.firstWord, this.lastWord);
+        return;
       }
-      //checking if adjacent numbers in the same column are of the same value, 
-      //adds them if they are and increments score
-      for (int i = 0; i < arrList.size()-1; i++) { 
-        lowerNumber = arrList.get(i);
-        upperNumber = arrList.get(i+1);
-        if (lowerNumber == upperNumber) {
-          int sum = lowerNumber + upperNumber;
-          arrList.set(i, sum);
-          arrList.remove(i+1);
-          this.score += sum;
+      int size = GRID_SIZE;
+      int lastRow = (size - 1) * size;
+      for (int line = this.first; line < this.last; ) {
+        switch (this.direction) {
+        case LEFT:
+          this.gained += mergeLine(line * size, 1, null, this);
+          line++;
+          break;
+        case RIGHT:
+          this.gained += mergeLine(line * size + size - 1, -1, null, this);
+          line++;
+          break;
+        case UP:
+        case DOWN:
+          int width = Math.min(COLUMN_STRIP, this.last - line);
+          this.gained += (this.direction == Direction.UP) ?
+            mergeColumns(line, width, size, null, this) :
+            mergeColumns(lastRow + line, width, -size, null, this);
+          line += width;
+          break;
         }
       }
-      //adding missing 0s
-      for (int i = arrList.size(); i < this.GRID_SIZE; i++) {
-        arrList.add(0);
+    }
+    
+    /** 
+     * Writes a tile of the chunk and keeps the change
+     */
+    private void write(int cell, int exponent) {
+      int old = tiles[cell];
+      if (old != exponent) {
+        tiles[cell] = (byte) exponent;
+        if (this.count == this.cells.length) {
+          this.cells = Arrays.copyOf(this.cells, this.count * 2);
+          this.oldExponents = Arrays.copyOf(this.oldExponents, this.count * 2);
+          this.newExponents = Arrays.copyOf(this.newExponents, this.count * 2);
+        }
+        this.cells[this.count] = cell;
+        this.oldExponents[this.count] = (byte) old;
+        this.newExponents[this.count] = (byte) exponent;
+        this.count++;
+        this.hashDelta ^= tileKey(cell, old) ^ tileKey(cell, exponent);
       }
-      //copying arraylist to board
-      for (int row2 = 0, row3 = this.GRID_SIZE-1; row2 < this.GRID_SIZE; 
-           row2++, row3--) {
-             this.grid[row2][column] = arrList.get(row3);
-           }  
     }
   }
   
   /** 
-   * Checks if there are no more possible moves, i.e if the game is over
-   * @return boolean - true if there are no possible moves, false if there are
+   * Writes a tile, records the change in the undo history and updates 
+   * the empty tile index
+   * @param int cell - index of the tile, row * GRID_SIZE + column
+   * @param int exponent - the new exponent of the tile, 0 for empty
    */
-  public boolean isGameOver() {
-    if (this.canMoveRight() || this.canMoveLeft() || this.canMoveUp() ||
-        this.canMoveDown()) {
-      return false; }
-    return true;
+  private void setExponent(int cell, int exponent) {
+    int old = this.tiles[cell];
+    if (old != exponent) {
+      this.tiles[cell] = (byte) exponent;
+      this.history.record(cell, old, exponent);
+      this.emptyCells.update(cell, old, exponent);
+      this.legalMoves = -1;
+      this.hash ^= tileKey(cell, old) ^ tileKey(cell, exponent);
+      if (this.changedBits != null) {
+        this.markChanged(cell);
+      }
+    }
   }
   
   /** 
-   * Checks if there are no more possible moves, i.e if the game is over
-   * @return boolean - true if there are no possible moves, false if there are
+   * Writes a tile from the undo history, without recording it
+   * @param int cell - index of the tile, row * GRID_SIZE + column
+   * @param int exponent - the new exponent of the tile
    */
-  private boolean canMoveRight() {
-    //for loop for looping through the board
-    for (int row = 0; row < this.GRID_SIZE; row++) {
-      for (int column = 0; column < this.GRID_SIZE-1; column++) {
-        
-        int leftTile = this.grid[row][column];
-        int rightTile = this.grid[row][column+1];
-        
-        //checks if there is an empty space to the right of the tile
-        if (leftTile != 0 && rightTile == 0) {
-          return true; }
-        if (leftTile != 0 && rightTile != 0 && leftTile == rightTile) {
-          return true; }
-      }
+  private void restoreTile(int cell, int exponent) {
+    int old = this.tiles[cell];
+    this.tiles[cell] = (byte) exponent;
+    this.emptyCells.update(cell, old, exponent);
+    this.legalMoves = -1;
+    this.hash ^= tileKey(cell, old) ^ tileKey(cell, exponent);
+    if (this.changedBits != null) {
+      this.markChanged(cell);
     }
-    return false;
   }
   
   /** 
-   * Checks if there are no more possible moves, i.e if the game is over
-   * @return boolean - true if there are no possible moves, false if there are
+   * Converts the exponent of a tile to its value
+   * @param int exponent - the exponent, 0 for an empty tile
+   * @return int - the value, 0 for an empty tile
    */
-  private boolean canMoveLeft() {
-    //for loop for looping through the board
-    for(int row = 0; row < this.GRID_SIZE; row++) {
-      for (int column = 0; column < this.GRID_SIZE-1; column++) {
-        
-        int leftTile = this.grid[row][column];
-        int rightTile = this.grid[row][column+1];
-        
-        //checks if there is any empty space to the left of the tile
-        if (leftTile == 0 && rightTile != 0) {
-          return true;
-        }
-        //checks if adjacent tiles have equal value
-        if (leftTile != 0 && rightTile != 0 && leftTile == rightTile) {
-          return true;
-        }
-      } 
+  private static int valueOf(int exponent) {
+    return (exponent == 0) ? 0 : 1 << exponent;
+  }
+  
+  /** 
+   * Converts the value of a tile to its exponent
+   * @param int value - the value, a power of 2 or 0 for an empty tile
+   * @return int - the exponent, 0 for an empty tile
+   */
+  private static int exponentOf(int value) {
+    return (value == 0) ? 0 : Integer.numberOfTrailingZeros(value);
+  }
+  
+  /** 
+   * Adds a tile to the changed tiles, once
+   * @param int cell - index of the tile, row * GRID_SIZE + column
+   */
+  private void markChanged(int cell) {
+    long bit = 1L << cell;
+    if ((this.changedBits[cell >>> 6] & bit) == 0) {
+      this.changedBits[cell >>> 6] |= bit;
+      this.changedCells[this.changedCount++] = cell;
     }
-    return false;
-  } 
+  }
   
   /** 
-   * Checks if there are no more possible moves, i.e if the game is over
-   * @return boolean - true if there are no possible moves, false if there are
+   * Starts keeping track of the tiles that change, so that a GUI can 
+   * redraw only those. Nothing is tracked before this is called.
    */
-  private boolean canMoveUp() {
-    // for loop for looping through the board
-    for (int column = 0; column < this.GRID_SIZE; column++) {
-      for (int row = 0; row < this.GRID_SIZE - 1; row++) {
-        
-        int upperTile = this.grid[row][column];
-        int lowerTile = this.grid[row+1][column];
-        //checks if there is any empty space above the tile
-        if (upperTile == 0 && lowerTile != 0 ) {
-          return true;
-        }
-        //checks if adjacent tiles in one column are equal
-        if (lowerTile != 0 && upperTile != 0 && upperTile == lowerTile) {
-          return true;
-        }
-      } 
+  public void startTrackingChanges() {
+    if (this.changedBits == null) {
+      int tiles = this.GRID_SIZE * this.GRID_SIZE;
+      this.changedBits = new long[(tiles + 63) >>> 6];
+      this.changedCells = new int[tiles];
+      this.changedCount = 0;
+    }
+  }
+  
+  /** 
+   * Copies the tiles that changed since the last call, or since 
+   * startTrackingChanges(), and forgets them. A tile that changed and 
+   * changed back is still reported.
+   * @param int[] cells - array of at least GRID_SIZE * GRID_SIZE ints 
+   *                      for the tiles, row * GRID_SIZE + column
+   * @return int - number of tiles copied into cells
+   */
+  public int takeChangedTiles(int[] cells) {
+    int count = this.changedCount;
+    for (int i = 0; i < count; i++) {
+      int cell = this.changedCells[i];
+      cells[i] = cell;
+      this.changedBits[cell >>> 6] &= ~(1L << cell);
+    }
+    this.changedCount = 0;
+    return count;
+  }
+  
+  /** 
+   * Returns the Zobrist key of a tile. The keys are made by scrambling 
+   * the place and exponent of the tile (with the SplitMix64 finalizer) 
+   * instead of being stored in a table, so large boards don't need 
+   * megabytes of keys.
+   * @param int cell - index of the tile, row * GRID_SIZE + column
+   * @param int exponent - exponent of the tile
+   * @return long - the key, 0 for an empty tile
+   */
+  private static long tileKey(int cell, int exponent) {
+    if (exponent == 0) {
+      return 0L;
+    }
+    //a copy of Simulator.mix(), so the hashes don't change with the way 
+    //the simulator scrambles its seeds
+    long z = (((long) cell << 6) | exponent) + 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+  
+  /** 
+   * Computes the Zobrist hash of all tiles, when a board is created
+   */
+  private long computeHash() {
+    long result = 0L;
+    for (int cell = 0; cell < this.tiles.length; cell++) {
+      result ^= tileKey(cell, this.tiles[cell]);
+    }
+    return result;
+  }
+  
+  /** 
+   * Returns the 64 bit Zobrist hash of the tiles, the score isn't part 
+   * of it. It is kept up to date with every changed tile, so this is 
+   * free.
+   * @return long - the hash
+   */
+  public long zobristHash() {
+    return this.hash;
+  }
+  
+  /** 
+   * Checks if another board has the same size and tiles, the score 
+   * isn't compared. Boards with different hashes are told apart right 
+   * away, the tiles are only compared when the hashes match.
+   * @param Object other - the object to compare with
+   * @return boolean - true if the boards have the same tiles
+   */
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
     }
-    return false;
+    if (!(other instanceof Board)) {
+      return false;
+    }
+    Board board = (Board) other;
+    return this.hash == board.hash && this.GRID_SIZE == board.GRID_SIZE &&
+      Arrays.equals(this.tiles, board.tiles);
+  }
+  
+  @Override
+  public int hashCode() {
+    return (int) (this.hash ^ (this.hash >>> 32));
   }
   
   /** 
    * Checks if there are no more possible moves, i.e if the game is over
    * @return boolean - true if there are no possible moves, false if there are
    */
-  private boolean canMoveDown() {
-    // for loop for looping through the board
-    for (int column = 0; column < this.GRID_SIZE; column++) {
-      for (int row = 0; row < this.GRID_SIZE - 1; row++) {
-        
-        int upperTile = this.grid[row][column];
-        int lowerTile = this.grid[row+1][column];
-        //System.out.println("lower" + lowerTile + "upper" + upperTile);
-        //checks if there is any empty space below the tile
-        if (upperTile != 0 && lowerTile == 0 ) {
-          return true;
+  public boolean isGameOver() {
+    return this.legalMoves() == 0;
+  }
+  
+  /** 
+   * Returns the bit of a direction in the mask of legalMoves()
+   * @param Direction direction - the direction
+   * @return int - the bit, 1 << direction.ordinal()
+   */
+  public static int moveBit(Direction direction) {
+    return 1 << direction.ordinal();
+  }
+  
+  /** 
+   * Finds all possible moves in a single pass over the board. The result 
+   * is kept until a tile changes, so asking again is free.
+   * @return int - mask of moveBit() of every possible direction, 0 if 
+   *               the game is over
+   */
+  public int legalMoves() {
+    if (this.legalMoves >= 0) {
+      return this.legalMoves;
+    }
+    int mask = 0;
+    
+    //compares every tile with its right and lower neighbour
+    int size = this.GRID_SIZE;
+    byte[] tiles = this.tiles;
+    for (int row = 0; row < size && mask != ALL_MOVES; row++) {
+      int line = row * size;
+      boolean below = row + 1 < size;
+      for (int column = 0; column < size; column++) {
+        int tile = tiles[line + column];
+        if (column + 1 < size) {
+          int rightTile = tiles[line + column + 1];
+          if (tile == 0) {
+            if (rightTile != 0) { mask |= LEFT_BIT; }
+          }
+          else if (rightTile == 0) { mask |= RIGHT_BIT; }
+          else if (rightTile == tile) { mask |= LEFT_BIT | RIGHT_BIT; }
         }
-        //checks if adjacent tiles in one column are equal
-        if (upperTile != 0 && lowerTile != 0 && upperTile == lowerTile) {
-          return true;
+        if (below) {
+          int lowerTile = tiles[line + size + column];
+          if (tile == 0) {
+            if (lowerTile != 0) { mask |= UP_BIT; }
+          }
+          else if (lowerTile == 0) { mask |= DOWN_BIT; }
+          else if (lowerTile == tile) { mask |= UP_BIT | DOWN_BIT; }
         }
-      } 
+      }
     }
-    return false;
+    this.legalMoves = mask;
+    return mask;
   }
   
   /** 
@@ -569,32 +1209,32 @@ public class Board {
    * @return boolean - true if the move is possible, false if not
    */
   public boolean canMove(Direction direction) {
-    
-    //invokes helper methods according to direction paramenter  
-    if (direction.equals(Direction.UP)) {
-      return this.canMoveUp();
-    }
-    if (direction.equals(Direction.DOWN)) {
-      return this.canMoveDown();
-    }
-    if (direction.equals(Direction.RIGHT)) {
-      return this.canMoveRight();
-    }
-    if (direction.equals(Direction.LEFT)) {
-      boolean toReturn = this.canMoveLeft();
-      return toReturn;
-    }
-    
-    return false;
+    return (this.legalMoves() & moveBit(direction)) != 0;
   }
   
-// Return the reference to the 2048 Grid
+  /** 
+   * Decodes the tiles into a new grid of their values. Later changes of 
+   * the board don't show in it; getTile() reads single tiles without 
+   * decoding the whole board.
+   * @return int[][] - the value of every tile, 0 for an empty tile
+   */
   public int[][] getGrid() {
+    int[][] grid = new int[GRID_SIZE][GRID_SIZE];
+    for (int row = 0, cell = 0; row < GRID_SIZE; row++) {
+      for (int column = 0; column < GRID_SIZE; column++, cell++) {
+        grid[row][column] = valueOf(tiles[cell]);
+      }
+    }
     return grid;
   }
   
+// Return the value of a tile, 0 for an empty tile
+  public int getTile(int row, int column) {
+    return valueOf(tiles[row * GRID_SIZE + column]);
+  }
+  
 // Return the score
-  public int getScore() {
+  public long getScore() {
     return score;
   }
   
@@ -604,8 +1244,8 @@ public class Board {
     outputString.append(String.format("Score: %d\n", score));
     for (int row = 0; row < GRID_SIZE; row++) {
       for (int column = 0; column < GRID_SIZE; column++)
-        outputString.append(grid[row][column] == 0 ? "    -" :
-                              String.format("%5d", grid[row][column]));
+        outputString.append(getTile(row, column) == 0 ? "    -" :
+                              String.format("%5d", getTile(row, column)));
       
       outputString.append("\n");
     }
@@ -613,17 +1253,42 @@ public class Board {
   }
   
   /* 
-   * Reverts one move back
+   * Reverts one move back, only the tiles the move changed are written
+   * @return boolean - true if a move was undone, false if there is none
    */
-  public void undo() {
+  public boolean undo() {
+    if (!this.history.canUndo()) {
+      return false;
+    }
+    long step = this.history.undo(this.score);
     
-    //copying previous board and score onto the current board and score
-    this.score = this.prevScore;
-    for (int row = 0; row < this.GRID_SIZE; row++) {
-      for (int column = 0; column < this.GRID_SIZE; column++) {
-        this.grid[row][column] = this.prevGrid[row][column];
-      }
+    //writing the old values back, latest change first
+    for (long change = this.history.endOfChanges(step) - 1;
+         change >= this.history.firstChange(step); change--) {
+      this.restoreTile(this.history.cellAt(change), 
+                       this.history.oldValueAt(change));
     }
-    System.out.println(this.toString());
+    this.score = this.history.scoreBefore(step);
+    return true;
+  }
+  
+  /* 
+   * Makes an undone move again
+   * @return boolean - true if a move was redone, false if there is none
+   */
+  public boolean redo() {
+    if (!this.history.canRedo()) {
+      return false;
+    }
+    long step = this.history.redo();
+    
+    //writing the new values again, first change first
+    for (long change = this.history.firstChange(step);
+         change < this.history.endOfChanges(step); change++) {
+      this.restoreTile(this.history.cellAt(change), 
+                       this.history.newValueAt(change));
+    }
+    this.score = this.history.scoreAfter(step);
+    return true;
   }
 }
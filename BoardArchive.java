@@ -0,0 +1,242 @@
+//package G2048;
+
+//------------------------------------------------------------------//
+//  Name: Bilguun Bulgan
+//  File: BoardArchive.java
+//
+//  This file stores many boards of the same size in a single binary
+//  file. The records have the layout of BinaryBoardFormat and all have
+//  the same length, so record i starts at a known offset. The archive
+//  is memory-mapped when it is opened, so any record can be read
+//  directly without parsing the ones before it, even in archives of
+//  millions of boards.
+//------------------------------------------------------------------//
+/**
+ * File layout (all numbers big-endian)
+ * <p/>
+ *   int   magic         0x32303441 ("204A")
+ *   int   version       1
+ *   int   grid size     n
+ *   long  record count
+ *   records, each BinaryBoardFormat.recordBytes(n) bytes long
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Class name: BoardArchive
+ * Purpose: Random access reader of a memory-mapped board archive. The
+ * nested Writer class creates archives.
+ */
+public class BoardArchive implements Closeable {
+
+  public static final int MAGIC = 0x32303441; // "204A"
+  public static final int HEADER_BYTES = 20;
+
+  //largest part of the file mapped by one buffer
+  private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+  private final FileChannel channel;
+  private final MappedByteBuffer[] segments;
+  private final int gridSize;
+  private final int recordBytes;
+  private final long recordCount;
+  private final int recordsPerSegment;
+
+  /**
+   * Opens and maps an archive
+   * @param String archiveFile: name of the archive file
+   */
+  public BoardArchive(String archiveFile) throws IOException {
+    this.channel = FileChannel.open(Paths.get(archiveFile),
+                                    StandardOpenOption.READ);
+    try {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      BinaryBoardFormat.readFully(this.channel, header);
+      this.gridSize = BinaryBoardFormat.checkHeader(header, MAGIC,
+                                                    BinaryBoardFormat.VERSION,
+                                                    archiveFile);
+      this.recordBytes = BinaryBoardFormat.recordBytes(this.gridSize);
+      this.recordCount = header.getLong(12);
+      if (this.recordCount < 0 || this.channel.size() !=
+          HEADER_BYTES + this.recordCount * this.recordBytes) {
+        throw new IOException(archiveFile + " has the wrong length");
+      }
+
+      //maps whole records only, so no record spans two segments
+      this.recordsPerSegment = (int) Math.max(1, MAX_SEGMENT_BYTES /
+                                              this.recordBytes);
+      int count = (int) ((this.recordCount + this.recordsPerSegment - 1) /
+                         this.recordsPerSegment);
+      this.segments = new MappedByteBuffer[count];
+      for (int i = 0; i < count; i++) {
+        long first = (long) i * this.recordsPerSegment;
+        long records = Math.min(this.recordsPerSegment,
+                                this.recordCount - first);
+        this.segments[i] = this.channel.map(FileChannel.MapMode.READ_ONLY,
+          HEADER_BYTES + first * this.recordBytes,
+          records * this.recordBytes);
+      }
+    } catch (IOException e) {
+      this.channel.close();
+      throw e;
+    }
+  }
+
+  // Return the number of boards in the archive
+  public long size() {
+    return recordCount;
+  }
+
+  // Return the grid size of the boards in the archive
+  public int getGridSize() {
+    return gridSize;
+  }
+
+  /**
+   * Reads a board
+   * @param long index - number of the board, 0 for the first one
+   * @param Random random - random generator of the board
+   * @return Board - the board, its checksum is verified
+   */
+  public Board getBoard(long index, Random random) throws IOException {
+    return BinaryBoardFormat.getRecord(this.segment(index),
+      this.position(index), this.gridSize,
+      new byte[this.gridSize * this.gridSize], random);
+  }
+
+  /**
+   * Reads the score of a board without decoding its tiles
+   * @param long index - number of the board
+   * @return long - the score
+   */
+  public long getScore(long index) {
+    return this.segment(index).getLong(this.position(index));
+  }
+
+  /**
+   * Copies the tile exponents of a board without creating a Board
+   * @param long index - number of the board
+   * @param byte[] target - array of at least gridSize^2 bytes
+   */
+  public void getExponents(long index, byte[] target) {
+    this.segment(index).get(this.position(index) + 8, target, 0,
+                            this.gridSize * this.gridSize);
+  }
+
+  /**
+   * Checks the checksum of a board
+   * @param long index - number of the board
+   * @return boolean - true if the record isn't damaged
+   */
+  public boolean verify(long index) {
+    return BinaryBoardFormat.checkRecord(this.segment(index),
+                                         this.position(index), this.gridSize);
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.channel.close();
+  }
+
+  /**
+   * Finds the mapped segment holding a record
+   */
+  private MappedByteBuffer segment(long index) {
+    if (index < 0 || index >= this.recordCount) {
+      throw new IndexOutOfBoundsException("Board " + index + " of " +
+                                          this.recordCount);
+    }
+    return this.segments[(int) (index / this.recordsPerSegment)];
+  }
+
+  /**
+   * Finds the position of a record inside its segment
+   */
+  private int position(long index) {
+    return (int) (index % this.recordsPerSegment) * this.recordBytes;
+  }
+
+  /**
+   * Name: Writer (class)
+   * Purpose: appends boards of one size to a new archive file and
+   *          writes the record count when closed
+   */
+  public static class Writer implements Closeable {
+
+    //size of the write buffer
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final byte[] exponents;
+    private final int gridSize;
+    private long recordCount;
+
+    /**
+     * Creates an archive file, replacing an existing one
+     * @param String archiveFile: name of the archive file
+     * @param int gridSize: size of all boards of the archive
+     */
+    public Writer(String archiveFile, int gridSize) throws IOException {
+      this.gridSize = gridSize;
+      this.exponents = new byte[gridSize * gridSize];
+      int recordBytes = BinaryBoardFormat.recordBytes(gridSize);
+      this.buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_BYTES,
+                                                       recordBytes));
+      this.channel = FileChannel.open(Paths.get(archiveFile),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+
+      //the record count is filled in by close()
+      this.buffer.putInt(MAGIC).putInt(BinaryBoardFormat.VERSION)
+        .putInt(gridSize).putLong(0L);
+    }
+
+    /**
+     * Appends a board
+     * @param Board board - a board of the archive's grid size
+     */
+    public void add(Board board) throws IOException {
+      if (board.GRID_SIZE != this.gridSize) {
+        throw new IllegalArgumentException("Board size " + board.GRID_SIZE +
+                                           " doesn't match the archive");
+      }
+      if (this.buffer.remaining() <
+          BinaryBoardFormat.recordBytes(this.gridSize)) {
+        this.flush();
+      }
+      BinaryBoardFormat.putRecord(this.buffer, board, this.exponents);
+      this.recordCount++;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        this.flush();
+        ByteBuffer count = ByteBuffer.allocate(8);
+        count.putLong(this.recordCount).flip();
+        while (count.hasRemaining()) {
+          this.channel.write(count, 12 + count.position());
+        }
+      } finally {
+        this.channel.close();
+      }
+    }
+
+    /**
+     * Writes the buffered records to the file
+     */
+    private void flush() throws IOException {
+      this.buffer.flip();
+      while (this.buffer.hasRemaining()) {
+        this.channel.write(this.buffer);
+      }
+      this.buffer.clear();
+    }
+  }
+}
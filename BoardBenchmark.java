@@ -0,0 +1,387 @@
+//package G2048;
+
+//------------------------------------------------------------------//
+//  Name: Bilguun Bulgan
+//  File: BoardBenchmark.java
+//
+//  This file is a small benchmark harness for the Board methods that
+//  are called on every key press or while loading and saving games.
+//  Every benchmark runs on sparse, dense and nearly game over boards
+//  of several sizes, and the results are written as CSV so that runs
+//  can be compared with each other to catch regressions.
+//------------------------------------------------------------------//
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Class name: BoardBenchmark
+ * Purpose: Measures the time per call of the Board methods and writes
+ * one CSV line per benchmark, board size and board fill.
+ *
+ * Every measured iteration first prepares a batch of boards (not
+ * timed) and then times the method on all of them, so that methods
+ * which change the board always start from the same position and the
+ * timer overhead is spread over the whole batch. Board prints to the
+ * console in some methods, the console is muted while measuring.
+ */
+public class BoardBenchmark {
+
+  private static final int[] DEFAULT_SIZES = {4, 8, 32, 256};
+  private static final String[] FILLS = {"sparse", "dense", "nearGameOver"};
+
+  //number of tiles prepared per measured batch, and the batch limits
+  private static final int TILES_PER_BATCH = 1 << 16;
+  private static final int MAX_BATCH = 4096;
+
+  private static final PrintStream CONSOLE = System.out;
+  private static final PrintStream MUTED =
+    new PrintStream(OutputStream.nullOutputStream());
+
+  /**
+   * Name: Operation (interface)
+   * Purpose: the method call that is being measured; it returns a value
+   *          depending on the result, so the JIT can't drop the call
+   */
+  private interface Operation {
+    long run(Fixture fixture, Board board) throws IOException;
+  }
+
+  //every result of an operation is folded into this, and it is printed
+  //at the end, so no measured work is dead code
+  private static long sink;
+
+  /**
+   * Name: Fixture (class)
+   * Purpose: a prepared board of a given size and fill, together with
+   *          the files it is loaded from and saved to
+   */
+  private static final class Fixture {
+    private final int size;
+    private final String fill;
+    private final Board template;
+    private final String inputFile;
+    private final String outputFile;
+
+    private Fixture(int size, String fill, Board template, String inputFile,
+                    String outputFile) {
+      this.size = size;
+      this.fill = fill;
+      this.template = template;
+      this.inputFile = inputFile;
+      this.outputFile = outputFile;
+    }
+  }
+
+  /**
+   * Name: Benchmark (class)
+   * Purpose: a named operation and how its boards are prepared
+   */
+  private static final class Benchmark {
+    private final String name;
+    private final boolean freshBoard; //operation changes the board, or
+                                      //caches something in it
+    private final boolean moveFirst;  //operation needs a previous move
+    private final Operation operation;
+
+    private Benchmark(String name, boolean freshBoard, boolean moveFirst,
+                      Operation operation) {
+      this.name = name;
+      this.freshBoard = freshBoard;
+      this.moveFirst = moveFirst;
+      this.operation = operation;
+    }
+  }
+
+  /**
+   * Builds the list of all benchmarks
+   * @return List<Benchmark> - every benchmark of the suite
+   */
+  private static List<Benchmark> benchmarks() {
+    List<Benchmark> list = new ArrayList<Benchmark>();
+    for (Direction direction : Direction.values()) {
+      list.add(new Benchmark("move" + direction.name(), true, false,
+                             (fixture, board) ->
+                               board.move(direction) ? 1 : 0));
+    }
+    //the legal moves are cached in the board until a tile changes, so
+    //every call gets a fresh board
+    for (Direction direction : Direction.values()) {
+      list.add(new Benchmark("canMove" + direction.name(), true, false,
+                             (fixture, board) ->
+                               board.canMove(direction) ? 1 : 0));
+    }
+    list.add(new Benchmark("isGameOver", true, false,
+                           (fixture, board) -> board.isGameOver() ? 1 : 0));
+    list.add(new Benchmark("addRandomTile", true, false,
+                           (fixture, board) -> {
+                             board.addRandomTile();
+                             return board.emptyCount();
+                           }));
+    list.add(new Benchmark("rotateClockwise", false, false,
+                           (fixture, board) -> {
+                             board.rotate(true);
+                             return board.zobristHash();
+                           }));
+    list.add(new Benchmark("rotateCounterClockwise", false, false,
+                           (fixture, board) -> {
+                             board.rotate(false);
+                             return board.zobristHash();
+                           }));
+    list.add(new Benchmark("undo", true, true,
+                           (fixture, board) -> board.undo() ? 1 : 0));
+    list.add(new Benchmark("saveBoard", false, false,
+                           (fixture, board) -> {
+                             board.saveBoard(fixture.outputFile);
+                             return 0;
+                           }));
+    list.add(new Benchmark("loadBoard", false, false,
+                           (fixture, board) ->
+                             new Board(fixture.inputFile, new Random(0))
+                               .zobristHash()));
+    list.add(new Benchmark("isInputFileCorrectFormat", false, false,
+                           (fixture, board) -> Board.
+                             isInputFileCorrectFormat(fixture.inputFile) ?
+                             1 : 0));
+    return list;
+  }
+
+  /**
+   * Runs the benchmarks
+   * @param String[] args - command line arguments, see printUsage()
+   */
+  public static void main(String[] args) throws IOException {
+    String outputFile = "benchmark.csv";
+    String filter = null;
+    int[] sizes = DEFAULT_SIZES;
+    int warmup = 3;
+    int iterations = 10;
+
+    // Arguments must come in pairs
+    if ((args.length % 2) != 0) {
+      printUsage();
+      System.exit(-1);
+    }
+    for (int i = 0; i < args.length; i += 2) {
+      if (args[i].equals("-o")) {
+        outputFile = args[i + 1];
+      }
+      else if (args[i].equals("-b")) {
+        filter = args[i + 1];
+      }
+      else if (args[i].equals("-s")) {
+        String[] parts = args[i + 1].split(",");
+        sizes = new int[parts.length];
+        for (int j = 0; j < parts.length; j++) {
+          sizes[j] = Integer.parseInt(parts[j].trim());
+        }
+      }
+      else if (args[i].equals("-w")) {
+        warmup = Integer.parseInt(args[i + 1]);
+      }
+      else if (args[i].equals("-i")) {
+        iterations = Integer.parseInt(args[i + 1]);
+      }
+      else {
+        printUsage();
+        System.exit(-1);
+      }
+    }
+
+    File workDir = createWorkDir();
+    PrintWriter writer = new PrintWriter(new FileWriter(outputFile));
+    writer.println("benchmark,size,fill,batch,iterations," +
+                   "mean_ns_per_op,min_ns_per_op,max_ns_per_op");
+
+    try {
+      for (int size : sizes) {
+        for (String fill : FILLS) {
+          Fixture fixture = createFixture(workDir, size, fill);
+          for (Benchmark benchmark : benchmarks()) {
+            if (filter != null && !benchmark.name.contains(filter)) {
+              continue;
+            }
+            String line = measure(benchmark, fixture, warmup, iterations);
+            writer.println(line);
+            writer.flush();
+            System.err.println(line);
+          }
+        }
+      }
+    } finally {
+      System.setOut(CONSOLE);
+      writer.close();
+      for (File file : workDir.listFiles()) {
+        file.delete();
+      }
+      workDir.delete();
+    }
+    System.err.println("Checksum of all results: " + sink);
+  }
+
+  /**
+   * Runs one benchmark on one fixture
+   * @param Benchmark benchmark - the benchmark to run
+   * @param Fixture fixture - the board to run it on
+   * @param int warmup - number of iterations that aren't recorded
+   * @param int iterations - number of recorded iterations
+   * @return String - the CSV line with the results
+   */
+  private static String measure(Benchmark benchmark, Fixture fixture,
+                                int warmup, int iterations)
+    throws IOException {
+    int tiles = fixture.size * fixture.size;
+    int batch = Math.max(1, Math.min(MAX_BATCH, TILES_PER_BATCH / tiles));
+    //file operations are much slower, keeps their batches small
+    if (benchmark.name.equals("saveBoard") ||
+        benchmark.name.equals("loadBoard") ||
+        benchmark.name.equals("isInputFileCorrectFormat")) {
+      batch = Math.max(1, batch / 64);
+    }
+
+    Board[] boards = new Board[batch];
+    double sum = 0;
+    double min = Double.MAX_VALUE;
+    double max = 0;
+
+    for (int iteration = 0; iteration < warmup + iterations; iteration++) {
+      //preparing the boards (not timed)
+      for (int i = 0; i < batch; i++) {
+        if (benchmark.freshBoard || boards[i] == null) {
+          boards[i] = prepare(benchmark, fixture, i);
+        }
+      }
+
+      System.setOut(MUTED);
+      long results = 0;
+      long start = System.nanoTime();
+      for (int i = 0; i < batch; i++) {
+        results = results * 31 + benchmark.operation.run(fixture, boards[i]);
+      }
+      long elapsed = System.nanoTime() - start;
+      System.setOut(CONSOLE);
+      sink += results;
+
+      if (iteration >= warmup) {
+        double perOperation = (double) elapsed / batch;
+        sum += perOperation;
+        min = Math.min(min, perOperation);
+        max = Math.max(max, perOperation);
+      }
+    }
+
+    return String.format(Locale.ROOT, "%s,%d,%s,%d,%d,%.1f,%.1f,%.1f",
+                         benchmark.name, fixture.size, fixture.fill, batch,
+                         iterations, sum / iterations, min, max);
+  }
+
+  /**
+   * Prepares a board for one call of a benchmark
+   * @param Benchmark benchmark - the benchmark that will use the board
+   * @param Fixture fixture - the fixture the board is copied from
+   * @param int index - index of the board in the batch, seeds its random
+   * @return Board - a copy of the fixture board
+   */
+  private static Board prepare(Benchmark benchmark, Fixture fixture,
+                               int index) {
+    Board board = new Board(fixture.template, new Random(index));
+    if (benchmark.moveFirst) {
+      for (Direction direction : Direction.values()) {
+        if (board.canMove(direction)) {
+          board.move(direction);
+          break;
+        }
+      }
+    }
+    return board;
+  }
+
+  /**
+   * Creates a board of the given size and fill and saves it into the
+   * working directory
+   * @param File workDir - directory for the board files
+   * @param int size - the size of the board
+   * @param String fill - "sparse", "dense" or "nearGameOver"
+   * @return Fixture - the created fixture
+   */
+  private static Fixture createFixture(File workDir, int size, String fill)
+    throws IOException {
+    Random random = new Random(size * 31 + fill.hashCode());
+    int[][] grid = new int[size][size];
+
+    for (int row = 0; row < size; row++) {
+      for (int column = 0; column < size; column++) {
+        if (fill.equals("sparse")) {
+          //about one tile in ten, of small values
+          if (random.nextInt(10) == 0) {
+            grid[row][column] = 2 << random.nextInt(3);
+          }
+        }
+        else if (fill.equals("dense")) {
+          //about 19 tiles in 20, of mixed values
+          if (random.nextInt(20) != 0) {
+            grid[row][column] = 2 << random.nextInt(10);
+          }
+        }
+        else {
+          //checkerboard of 2s and 4s, nothing can merge
+          grid[row][column] = ((row + column) % 2 == 0) ? 2 : 4;
+        }
+      }
+    }
+    //keeps a single empty tile on nearly game over boards, and at least
+    //one tile that can move on the other boards
+    grid[size - 1][size - 1] = 0;
+    if (!fill.equals("nearGameOver")) {
+      grid[0][0] = 2;
+    }
+
+    String name = size + "-" + fill;
+    File inputFile = new File(workDir, name + ".board");
+    PrintWriter writer = new PrintWriter(inputFile);
+    writer.println(size);
+    writer.print(0);
+    for (int row = 0; row < size; row++) {
+      writer.println();
+      for (int column = 0; column < size; column++) {
+        writer.print(grid[row][column] + " ");
+      }
+    }
+    writer.println();
+    writer.close();
+
+    Board template = new Board(inputFile.getPath(), new Random(0));
+    File outputFile = new File(workDir, name + ".saved.board");
+    return new Fixture(size, fill, template, inputFile.getPath(),
+                       outputFile.getPath());
+  }
+
+  /**
+   * Creates a temporary directory for the board files
+   * @return File - the created directory
+   */
+  private static File createWorkDir() throws IOException {
+    File workDir = File.createTempFile("board-benchmark", "");
+    workDir.delete();
+    if (!workDir.mkdir()) {
+      throw new IOException("Can't create " + workDir);
+    }
+    return workDir;
+  }
+
+  // Print the Usage Message
+  private static void printUsage() {
+    System.out.println("BoardBenchmark");
+    System.out.println("Usage:  BoardBenchmark [-o file] [-b name] " +
+                       "[-s sizes] [-w count] [-i count]");
+    System.out.println();
+    System.out.println("  -o [file]  -> CSV file for the results, " +
+                       "default \"benchmark.csv\"");
+    System.out.println("  -b [name]  -> Only runs benchmarks whose name " +
+                       "contains this text");
+    System.out.println("  -s [sizes] -> Comma separated board sizes, " +
+                       "default 4,8,32,256");
+    System.out.println("  -w [count] -> Warmup iterations, default 3");
+    System.out.println("  -i [count] -> Measured iterations, default 10");
+  }
+}
@@ -0,0 +1,149 @@
+//package G2048;
+
+//------------------------------------------------------------------//
+//  Name: Bilguun Bulgan
+//  File: BoardCanvas.java
+//
+//  This file draws a 2048 board onto a single JavaFX Canvas. Gui2048
+//  uses it instead of one Rectangle and one Text node per tile when the
+//  board is too large for a scene graph of that many nodes. After a
+//  move only the tiles that changed are painted again, the whole board
+//  is only painted when the canvas changes size. The numbers are left
+//  out when the tiles are too small to read them.
+//------------------------------------------------------------------//
+import javafx.geometry.*;
+import javafx.scene.canvas.*;
+import javafx.scene.paint.*;
+import javafx.scene.text.*;
+
+/**
+ * Class name: BoardCanvas
+ * Purpose: A canvas that paints the tiles of a board and repaints the
+ * changed ones.
+ */
+public class BoardCanvas extends Canvas
+{
+	// Background between the tiles, same as the pane of Gui2048
+	private static final Color COLOR_BACKGROUND = Color.rgb(187, 173, 160);
+
+	// Tiles smaller than this many pixels are drawn without their number
+	private static final double MIN_TEXT_TILE = 18;
+
+	// Longest number a tile can show (2^30)
+	private static final int MAX_DIGITS = 10;
+
+	private final int gridSize;
+	private int[][] grid;       // the tiles that are drawn
+
+	private double tileSize;    // width of a tile and its gap, in pixels
+	private double gap;         // space between two tiles, in pixels
+	private Font[] fonts;       // font for every number of digits, or null
+	//if the tiles are too small for text
+
+	/**
+	 * Creates a canvas for a board, it is painted when it gets a size
+	 *
+	 * @param int gridSize : the size of the board
+	 */
+	public BoardCanvas(int gridSize) {
+		this.gridSize = gridSize;
+
+		//everything is painted again when the canvas is resized
+		this.widthProperty().addListener((property, before, after) ->
+				this.drawAll(this.grid));
+		this.heightProperty().addListener((property, before, after) ->
+				this.drawAll(this.grid));
+	}
+
+	/**
+	 * Paints the whole board
+	 *
+	 * @param int[][] grid : the tiles of the board, kept for repainting
+	 */
+	public void drawAll(int[][] grid) {
+		this.grid = grid;
+		this.layoutTiles();
+		GraphicsContext graphics = this.getGraphicsContext2D();
+		graphics.setFill(COLOR_BACKGROUND);
+		graphics.fillRect(0, 0, this.getWidth(), this.getHeight());
+		if (grid == null) {
+			return;
+		}
+		for (int row = 0; row < this.gridSize; row++) {
+			for (int column = 0; column < this.gridSize; column++) {
+				this.drawTile(graphics, row, column, grid[row][column]);
+			}
+		}
+	}
+
+	/**
+	 * Paints only the tiles that changed
+	 *
+	 * @param int[][] grid : the tiles of the board
+	 * @param int[] cells : the changed tiles, row * size + column
+	 * @param int count : number of changed tiles in cells
+	 */
+	public void drawTiles(int[][] grid, int[] cells, int count) {
+		this.grid = grid;
+		GraphicsContext graphics = this.getGraphicsContext2D();
+		for (int i = 0; i < count; i++) {
+			int row = cells[i] / this.gridSize;
+			int column = cells[i] % this.gridSize;
+
+			//clears the old tile together with its gap, then paints the new one
+			graphics.setFill(COLOR_BACKGROUND);
+			graphics.fillRect(column * this.tileSize, row * this.tileSize,
+					this.tileSize, this.tileSize);
+			this.drawTile(graphics, row, column, grid[row][column]);
+		}
+	}
+
+	/**
+	 * Paints one tile and its number, over the background
+	 */
+	private void drawTile(GraphicsContext graphics, int row, int column,
+			int numberOnTile) {
+		int exponent = (numberOnTile == 0) ? 0 :
+			Integer.numberOfTrailingZeros(numberOnTile);
+		double x = column * this.tileSize + this.gap / 2;
+		double y = row * this.tileSize + this.gap / 2;
+		double size = this.tileSize - this.gap;
+
+		graphics.setFill(Gui2048.tileColor(exponent));
+		graphics.fillRect(x, y, size, size);
+
+		//the number is only drawn when it is readable
+		if (numberOnTile != 0 && this.fonts != null) {
+			String number = Integer.toString(numberOnTile);
+			graphics.setFont(this.fonts[number.length()]);
+			graphics.setFill(Gui2048.textColor(numberOnTile));
+			graphics.fillText(number, x + size / 2, y + size / 2, size);
+		}
+	}
+
+	/**
+	 * Computes the size of the tiles and their fonts from the size of
+	 * the canvas, only when the canvas is painted completely
+	 */
+	private void layoutTiles() {
+		double side = Math.min(this.getWidth(), this.getHeight());
+		this.tileSize = side / this.gridSize;
+		//no gaps on tiny tiles, so that the tiles stay visible
+		this.gap = (this.tileSize >= 8) ? Math.min(8, this.tileSize / 12) : 0;
+
+		if (this.tileSize - this.gap < MIN_TEXT_TILE) {
+			this.fonts = null;
+			return;
+		}
+		this.fonts = new Font[MAX_DIGITS + 1];
+		for (int digits = 1; digits <= MAX_DIGITS; digits++) {
+			//longer numbers get smaller fonts so that they fit the tile
+			double scale = (digits <= 2) ? 0.5 : 1.2 / (digits + 0.4);
+			this.fonts[digits] = Font.font("Times New Roman", FontWeight.BOLD,
+					(this.tileSize - this.gap) * scale);
+		}
+		GraphicsContext graphics = this.getGraphicsContext2D();
+		graphics.setTextAlign(TextAlignment.CENTER);
+		graphics.setTextBaseline(VPos.CENTER);
+	}
+}
@@ -0,0 +1,390 @@
+//package G2048;
+
+//------------------------------------------------------------------//
+//  Name: Bilguun Bulgan
+//  File: BoardParser.java
+//
+//  This file reads text board files (the format of Board.saveBoard) in
+//  a single pass over their bytes. The numbers are checked while they
+//  are read and the tiles are collected at the same time, so a file is
+//  validated and loaded without reading it twice. Problems are returned
+//  as errors with a line, a column and a reason instead of being
+//  printed. Whole directories of .board files can be validated in
+//  parallel.
+//------------------------------------------------------------------//
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+/**
+ * Class name: BoardParser
+ * Purpose: Validates and loads text board files, one file per parser.
+ */
+public class BoardParser {
+
+  //size of the read buffer
+  private static final int BUFFER_BYTES = 1 << 16;
+
+  //more errors than this in one file aren't collected
+  private static final int MAX_ERRORS = 100;
+
+  //largest grid size whose tiles fit into one array
+  private static final int MAX_SIZE = 46340;
+
+  /**
+   * Name: ParseError (class)
+   * Purpose: a problem found in a board file and where it was found
+   */
+  public static final class ParseError {
+    private final int line;
+    private final int column;
+    private final String reason;
+
+    private ParseError(int line, int column, String reason) {
+      this.line = line;
+      this.column = column;
+      this.reason = reason;
+    }
+
+    // Return the line of the problem, starting at 1 (0 if the file
+    // couldn't be read at all)
+    public int getLine() {
+      return line;
+    }
+
+    // Return the column of the problem, starting at 1
+    public int getColumn() {
+      return column;
+    }
+
+    // Return the description of the problem
+    public String getReason() {
+      return reason;
+    }
+
+    @Override
+    public String toString() {
+      return line + ":" + column + ": " + reason;
+    }
+  }
+
+  /**
+   * Name: Result (class)
+   * Purpose: the errors found in a file, and the loaded board if the
+   *          file could be loaded
+   */
+  public static final class Result {
+    private final List<ParseError> errors;
+    private final Board board;
+
+    private Result(List<ParseError> errors, Board board) {
+      this.errors = errors;
+      this.board = board;
+    }
+
+    // Return true if the file follows all format rules
+    public boolean isValid() {
+      return errors.isEmpty();
+    }
+
+    // Return all problems found, in file order
+    public List<ParseError> getErrors() {
+      return errors;
+    }
+
+    // Return the loaded board, or null if the tiles couldn't be read.
+    // A board is loaded even if only the size, score or trailing
+    // content rules are broken, like Board(String, Random) always did.
+    public Board getBoard() {
+      return board;
+    }
+  }
+
+  private final InputStream input;
+  private final byte[] buffer = new byte[BUFFER_BYTES];
+  private int length;
+  private int index;
+
+  private int line = 1;
+  private int column = 1;
+  private int tokenLine;
+  private int tokenColumn;
+
+  private final List<ParseError> errors = new ArrayList<ParseError>();
+  private boolean fatal;
+
+  private BoardParser(InputStream input) {
+    this.input = input;
+  }
+
+  /**
+   * Validates a board file and loads it at the same time
+   * @param String inputFile - name of the board file
+   * @param Random random - random generator of the loaded board
+   * @return Result - the errors and the board
+   */
+  public static Result parse(String inputFile, Random random) {
+    try (InputStream input = Files.newInputStream(Paths.get(inputFile))) {
+      return new BoardParser(input).parse(random, true);
+    } catch (IOException e) {
+      List<ParseError> errors = new ArrayList<ParseError>();
+      errors.add(new ParseError(0, 0, "Can't read file: " +
+                                e.getMessage()));
+      return new Result(errors, null);
+    }
+  }
+
+  /**
+   * Validates a board file without keeping the board
+   * @param String inputFile - name of the board file
+   * @return List<ParseError> - all problems found, empty if the file is
+   *                            in correct format
+   */
+  public static List<ParseError> validate(String inputFile) {
+    try (InputStream input = Files.newInputStream(Paths.get(inputFile))) {
+      return new BoardParser(input).parse(null, false).getErrors();
+    } catch (IOException e) {
+      List<ParseError> errors = new ArrayList<ParseError>();
+      errors.add(new ParseError(0, 0, "Can't read file: " +
+                                e.getMessage()));
+      return errors;
+    }
+  }
+
+  /**
+   * Validates all .board files of a directory in parallel
+   * @param String directory - the directory to check (not recursive)
+   * @return Map<String, List<ParseError>> - the problems of every file
+   *         that isn't in correct format, sorted by file name
+   */
+  public static Map<String, List<ParseError>> validateDirectory(
+    String directory) throws IOException {
+    List<Path> files;
+    try (Stream<Path> listing = Files.list(Paths.get(directory))) {
+      files = listing.filter(path -> path.toString().endsWith(".board"))
+        .collect(Collectors.toList());
+    }
+    Map<String, List<ParseError>> invalid =
+      new TreeMap<String, List<ParseError>>();
+    List<Map.Entry<String, List<ParseError>>> results = files
+      .parallelStream()
+      .map(path -> new AbstractMap.SimpleEntry<String, List<ParseError>>(
+             path.toString(), validate(path.toString())))
+      .filter(entry -> !entry.getValue().isEmpty())
+      .collect(Collectors.toList());
+    for (Map.Entry<String, List<ParseError>> entry : results) {
+      invalid.put(entry.getKey(), entry.getValue());
+    }
+    return invalid;
+  }
+
+  /**
+   * Reads the whole file: grid size, score, the tiles and nothing else
+   * @param Random random - random generator of the board
+   * @param boolean build - true to create the board
+   * @return Result - the errors and the board
+   */
+  private Result parse(Random random, boolean build) throws IOException {
+    //checks if the grid size is a valid number
+    long size = this.nextNumber("Board size", 0);
+    if (this.fatal) {
+      return new Result(this.errors, null);
+    }
+    if (size < 1 || size > MAX_SIZE) {
+      this.error("Board size number not valid: " + size);
+      return new Result(this.errors, null);
+    }
+    if (size <= 2) {
+      this.error("Board size number not valid: " + size);
+    }
+
+    //checks if the score is a valid number
+    long score = this.nextNumber("Score", 0);
+    if (this.fatal) {
+      return new Result(this.errors, null);
+    }
+    if (score < 0 || score % 2 != 0) {
+      this.error("Score not valid: " + score);
+    }
+
+    //checks if every tile is valid and collects its exponent
+    int tiles = (int) (size * size);
+    byte[] exponents = build ? new byte[tiles] : null;
+    boolean tilesValid = true;
+    for (int i = 0; i < tiles; i++) {
+      long tile = this.nextNumber("Tile number", i + 1);
+      if (this.fatal) {
+        return new Result(this.errors, null);
+      }
+      //tiles are kept as exponents, up to the limit of the binary format
+      if (tile != 0 && (tile < 2 || (tile & (tile - 1)) != 0 ||
+                        tile > (1L << BinaryBoardFormat.MAX_EXPONENT))) {
+        this.error("Tile number " + (i + 1) + " has invalid value " + tile);
+        tilesValid = false;
+      }
+      else if (build) {
+        exponents[i] = (byte) ((tile == 0) ? 0 :
+                               Long.numberOfTrailingZeros(tile));
+      }
+    }
+
+    //checks if there are anything extra in the file
+    if (this.skipWhitespace()) {
+      this.tokenLine = this.line;
+      this.tokenColumn = this.column;
+      this.error("There are extra content in the file");
+    }
+
+    Board board = null;
+    if (build && tilesValid) {
+      board = new Board((int) size, score, exponents, random);
+    }
+    return new Result(this.errors, board);
+  }
+
+  /**
+   * Reads the next whitespace separated number
+   * @param String name - what the number is, for error messages
+   * @param int number - number of the tile, 0 if it isn't a tile
+   * @return long - the number; sets fatal if there is no number
+   */
+  private long nextNumber(String name, int number) throws IOException {
+    if (!this.skipWhitespace()) {
+      this.tokenLine = this.line;
+      this.tokenColumn = this.column;
+      this.fatalError(describe(name, number) + " is missing");
+      return 0;
+    }
+    this.tokenLine = this.line;
+    this.tokenColumn = this.column;
+
+    boolean negative = false;
+    int current = this.peek();
+    if (current == '-' || current == '+') {
+      negative = current == '-';
+      this.advance();
+    }
+    long value = 0;
+    int digits = 0;
+    boolean tooLarge = false;
+    for (current = this.peek(); current >= '0' && current <= '9';
+         current = this.peek()) {
+      //scores are longs, so numbers may use the whole range of a long
+      if (value > (Long.MAX_VALUE - (current - '0')) / 10) {
+        tooLarge = true;
+      }
+      else {
+        value = value * 10 + (current - '0');
+      }
+      digits++;
+      this.advance();
+    }
+    if (digits == 0 || (current >= 0 && !isWhitespace(current))) {
+      this.fatalError(describe(name, number) + " is not a number");
+      return 0;
+    }
+    if (tooLarge) {
+      this.fatalError(describe(name, number) + " is too large");
+      return 0;
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * Builds the name of a number for error messages, only called when
+   * there is an error so that valid tiles don't build strings
+   */
+  private static String describe(String name, int number) {
+    return (number == 0) ? name : name + " " + number;
+  }
+
+  /**
+   * Skips spaces, tabs and line breaks
+   * @return boolean - true if there is more content after them
+   */
+  private boolean skipWhitespace() throws IOException {
+    int current = this.peek();
+    while (current >= 0 && isWhitespace(current)) {
+      this.advance();
+      current = this.peek();
+    }
+    return current >= 0;
+  }
+
+  private static boolean isWhitespace(int character) {
+    return character == ' ' || character == '\n' || character == '\r' ||
+      character == '\t' || character == '\f';
+  }
+
+  /**
+   * Returns the current byte without consuming it, -1 at the end
+   */
+  private int peek() throws IOException {
+    if (this.index == this.length) {
+      this.length = this.input.read(this.buffer, 0, this.buffer.length);
+      this.index = 0;
+      if (this.length <= 0) {
+        this.length = 0;
+        return -1;
+      }
+    }
+    return this.buffer[this.index] & 0xFF;
+  }
+
+  /**
+   * Consumes the current byte and keeps track of line and column
+   */
+  private void advance() {
+    if (this.buffer[this.index++] == '\n') {
+      this.line++;
+      this.column = 1;
+    }
+    else {
+      this.column++;
+    }
+  }
+
+  private void error(String reason) {
+    if (this.errors.size() < MAX_ERRORS) {
+      this.errors.add(new ParseError(this.tokenLine, this.tokenColumn,
+                                     reason));
+    }
+  }
+
+  private void fatalError(String reason) {
+    this.error(reason);
+    this.fatal = true;
+  }
+
+  /**
+   * Validates board files or directories from the command line and
+   * prints the problems of every invalid file
+   * @param String[] args - names of files and directories
+   */
+  public static void main(String[] args) throws IOException {
+    int invalidFiles = 0;
+    for (String name : args) {
+      Map<String, List<ParseError>> invalid;
+      if (Files.isDirectory(Paths.get(name))) {
+        invalid = validateDirectory(name);
+      }
+      else {
+        invalid = new TreeMap<String, List<ParseError>>();
+        List<ParseError> errors = validate(name);
+        if (!errors.isEmpty()) {
+          invalid.put(name, errors);
+        }
+      }
+      for (Map.Entry<String, List<ParseError>> entry : invalid.entrySet()) {
+        for (ParseError error : entry.getValue()) {
+          System.out.println(entry.getKey() + ":" + error);
+        }
+      }
+      invalidFiles += invalid.size();
+    }
+    System.out.println(invalidFiles + " invalid file(s)");
+    System.exit(invalidFiles == 0 ? 0 : 1);
+  }
+}
@@ -0,0 +1,143 @@
+//package G2048;
+
+//------------------------------------------------------------------//
+//  Name: Bilguun Bulgan
+//  File: EmptyCellIndex.java
+//
+//  This file keeps track of the empty tiles of a Board. The empty tiles
+//  are bits of a bitset in row-major order, and a Fenwick tree holds
+//  the number of empty tiles of every 64 bit word. Changing a tile and
+//  finding the k-th empty tile both take logarithmic time, and because
+//  the bits keep the row-major order, the k-th empty tile is the same
+//  tile the two grid scans of addRandomTile used to find.
+//------------------------------------------------------------------//
+
+import java.util.*;
+
+/**
+ * Class name: EmptyCellIndex
+ * Purpose: Bitset of empty tiles with counting and selection, used by
+ * Board to add random tiles without scanning the grid.
+ */
+final class EmptyCellIndex {
+
+  private final long[] words;
+  //Fenwick tree of the bit counts of the words, 1-based
+  private final int[] tree;
+  private final int highestStep;
+  private int count;
+
+  /**
+   * Constructs an index of the empty tiles of a board
+   * @param byte[] tiles: the tile exponents in row-major order, 0 for an
+   *                      empty tile
+   */
+  EmptyCellIndex(byte[] tiles) {
+    this.words = new long[(tiles.length + 63) >>> 6];
+    this.tree = new int[this.words.length + 1];
+    this.highestStep = Integer.highestOneBit(Math.max(1, this.words.length));
+    this.rebuildWords(tiles, 0, this.words.length);
+    this.rebuildTree();
+  }
+
+  /**
+   * Constructs a copy of another index
+   * @param EmptyCellIndex other: the index to copy
+   */
+  EmptyCellIndex(EmptyCellIndex other) {
+    this.words = other.words.clone();
+    this.tree = other.tree.clone();
+    this.highestStep = other.highestStep;
+    this.count = other.count;
+  }
+
+  // Return the number of empty tiles
+  int count() {
+    return count;
+  }
+
+  // Return true if a tile is empty
+  boolean isEmpty(int cell) {
+    return (words[cell >>> 6] & (1L << cell)) != 0;
+  }
+
+  /**
+   * Updates the index after a tile changed
+   * @param int cell - index of the tile, row * size + column
+   * @param int oldValue - exponent before the change
+   * @param int newValue - exponent after the change
+   */
+  void update(int cell, int oldValue, int newValue) {
+    if ((oldValue == 0) == (newValue == 0)) {
+      return;
+    }
+    int delta = (newValue == 0) ? 1 : -1;
+    this.words[cell >>> 6] ^= 1L << cell;
+    this.count += delta;
+    for (int i = (cell >>> 6) + 1; i <= this.words.length; i += i & -i) {
+      this.tree[i] += delta;
+    }
+  }
+
+  /**
+   * Reads a range of words again from the tiles, after the tiles were
+   * changed without update(). Threads may rebuild different ranges at
+   * the same time; rebuildTree() has to follow.
+   * @param byte[] tiles - the tile exponents in row-major order
+   * @param int fromWord - the first word, 64 tiles each
+   * @param int toWord - the word after the last one
+   */
+  void rebuildWords(byte[] tiles, int fromWord, int toWord) {
+    for (int word = fromWord; word < toWord; word++) {
+      int first = word << 6;
+      int last = Math.min(first + 64, tiles.length);
+      long bits = 0;
+      for (int cell = first; cell < last; cell++) {
+        if (tiles[cell] == 0) {
+          bits |= 1L << cell;
+        }
+      }
+      this.words[word] = bits;
+    }
+  }
+
+  /**
+   * Builds the tree and the count again from the words, in linear time
+   */
+  void rebuildTree() {
+    this.count = 0;
+    Arrays.fill(this.tree, 0);
+    for (int i = 1; i <= this.words.length; i++) {
+      this.tree[i] += Long.bitCount(this.words[i - 1]);
+      this.count += Long.bitCount(this.words[i - 1]);
+      int parent = i + (i & -i);
+      if (parent <= this.words.length) {
+        this.tree[parent] += this.tree[i];
+      }
+    }
+  }
+
+  /**
+   * Finds the k-th empty tile in row-major order
+   * @param int k - number of the empty tile, 0 <= k < count()
+   * @return int - index of the tile, row * size + column
+   */
+  int select(int k) {
+    //walks down the tree to the word holding the k-th empty tile
+    int word = 0;
+    for (int step = this.highestStep; step > 0; step >>>= 1) {
+      int next = word + step;
+      if (next <= this.words.length && this.tree[next] <= k) {
+        word = next;
+        k -= this.tree[next];
+      }
+    }
+
+    //drops the lower empty tiles of the word
+    long bits = this.words[word];
+    for (int i = 0; i < k; i++) {
+      bits &= bits - 1;
+    }
+    return (word << 6) + Long.numberOfTrailingZeros(bits);
+  }
+}
@@ -0,0 +1,377 @@
+//package G2048;
+
+//------------------------------------------------------------------//
+//  Name: Bilguun Bulgan
+//  File: ExpectimaxSolver.java
+//
+//  This file picks moves for 4x4 games with a depth limited expectimax
+//  search. Player moves are max nodes, random tiles are chance nodes
+//  (a 2 or a 4 on every empty tile, weighted like addRandomTile does).
+//  The search runs on BitBoard encoded positions, so it never copies a
+//  grid or prints anything. Searched positions are kept in a
+//  TranspositionTable, unlikely chance branches are cut off early and
+//  the search deepens step by step until the time budget runs out.
+//------------------------------------------------------------------//
+
+import java.util.*;
+
+/**
+ * Class name: ExpectimaxSolver
+ * Purpose: Finds the best Direction for a 4x4 board. A solver keeps
+ * its table between moves and isn't thread safe, every thread needs
+ * its own solver (see Simulator.run, which takes one policy per thread).
+ */
+public class ExpectimaxSolver implements MovePolicy {
+
+  //chance branches less likely than this are evaluated directly
+  static final float PROBABILITY_CUTOFF = 0.0001f;
+
+  //probability that a new tile is a 2, as used by addRandomTile
+  static final float TWO_PROBABILITY = 0.9f;
+
+  //shared copy of Direction.values(), which allocates on every call
+  static final Direction[] DIRECTIONS = Direction.values();
+
+  //how often (in nodes) the clock is checked
+  private static final int CLOCK_INTERVAL = 4096;
+
+  //weights of the row heuristic
+  private static final float LOST_PENALTY = 200000.0f;
+  private static final float MONOTONICITY_POWER = 4.0f;
+  private static final float MONOTONICITY_WEIGHT = 47.0f;
+  private static final float SUM_POWER = 3.5f;
+  private static final float SUM_WEIGHT = 11.0f;
+  private static final float MERGES_WEIGHT = 700.0f;
+  private static final float EMPTY_WEIGHT = 270.0f;
+
+  //heuristic value of every possible row, rows and columns are scored
+  //the same way
+  private static final float[] ROW_SCORES = new float[1 << 16];
+
+  static {
+    for (int line = 0; line < (1 << 16); line++) {
+      ROW_SCORES[line] = scoreRow(line);
+    }
+  }
+
+  private final int maxDepth;
+  private final long timeBudgetNanos;
+  private final TranspositionTable table;
+
+  private long nodes;
+  private int completedDepth;
+
+  /**
+   * Constructs a solver
+   * @param int maxDepth: number of player moves to look ahead at most
+   * @param long timeBudgetMillis: time per move, 0 for no limit
+   * @param long tableBytes: memory of the transposition table in bytes
+   */
+  public ExpectimaxSolver(int maxDepth, long timeBudgetMillis,
+                          long tableBytes) {
+    this.maxDepth = maxDepth;
+    this.timeBudgetNanos = timeBudgetMillis * 1000000L;
+    this.table = new TranspositionTable(tableBytes);
+  }
+
+  /**
+   * Finds the best move for a board
+   * @param Board board - a 4x4 board, isn't changed
+   * @return Direction - the best move, or null if no move is possible
+   */
+  public Direction bestMove(Board board) {
+    return bestMove(BitBoard.encode(board.getGrid()));
+  }
+
+  @Override
+  public Direction chooseMove(Board board, Random random) {
+    return bestMove(board);
+  }
+
+  /**
+   * Finds the best move for an encoded board. Searches one move deeper
+   * each round and keeps the answer of the deepest round that finished
+   * in time.
+   * @param long board - the encoded board
+   * @return Direction - the best move, or null if no move is possible
+   */
+  public Direction bestMove(long board) {
+    Search search = new Search(this.table, this.timeBudgetNanos,
+                               System.nanoTime() + this.timeBudgetNanos);
+    this.completedDepth = 0;
+    this.table.newSearch();
+
+    Direction best = null;
+    for (int depth = 1; depth <= this.maxDepth; depth++) {
+      search.reachedDepthLimit = false;
+      Direction found = searchRoot(search, board, depth);
+      if (search.outOfTime()) {
+        break;
+      }
+      best = found;
+      this.completedDepth = depth;
+      //stops when every branch was cut off by its probability, a deeper
+      //round would search the same tree again
+      if (found == null || !search.reachedDepthLimit) {
+        break;
+      }
+    }
+    this.nodes += search.nodes;
+    //always answers with some possible move, even when not a single
+    //round could finish
+    if (best == null && !MoveTables.isGameOver(board)) {
+      for (Direction direction : DIRECTIONS) {
+        if (MoveTables.canMove(board, direction)) {
+          return direction;
+        }
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Searches every move of the root position
+   * @param Search search - the nodes and clock of this search
+   * @param long board - the encoded board
+   * @param int depth - number of player moves to look ahead
+   * @return Direction - the best move, or null if no move is possible
+   */
+  private static Direction searchRoot(Search search, long board,
+                                      int depth) {
+    Direction best = null;
+    float bestValue = -1.0f;
+    for (Direction direction : DIRECTIONS) {
+      long moved = MoveTables.move(board, direction);
+      if (moved == board) {
+        continue;
+      }
+      float value = search.chanceNode(moved, depth - 1, 1.0f);
+      if (search.outOfTime()) {
+        return null;
+      }
+      if (value > bestValue) {
+        bestValue = value;
+        best = direction;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Evaluates a board with the row heuristic, on its rows and columns
+   * @param long board - the encoded board
+   * @return float - the heuristic value, higher is better
+   */
+  static float evaluate(long board) {
+    long transposed = BitBoard.transpose(board);
+    return ROW_SCORES[(int) (board & 0xFFFF)] +
+      ROW_SCORES[(int) ((board >>> 16) & 0xFFFF)] +
+      ROW_SCORES[(int) ((board >>> 32) & 0xFFFF)] +
+      ROW_SCORES[(int) (board >>> 48)] +
+      ROW_SCORES[(int) (transposed & 0xFFFF)] +
+      ROW_SCORES[(int) ((transposed >>> 16) & 0xFFFF)] +
+      ROW_SCORES[(int) ((transposed >>> 32) & 0xFFFF)] +
+      ROW_SCORES[(int) (transposed >>> 48)];
+  }
+
+  /**
+   * Scores a single row: rewards empty tiles, possible merges and
+   * monotonic rows, punishes big unordered tiles
+   * @param int line - the 16 bit row
+   * @return float - the score of the row
+   */
+  private static float scoreRow(int line) {
+    int[] ranks = new int[4];
+    for (int i = 0; i < 4; i++) {
+      ranks[i] = (line >>> (4 * i)) & 0xF;
+    }
+
+    float sum = 0.0f;
+    int empty = 0;
+    int merges = 0;
+    int previous = 0;
+    int counter = 0;
+    for (int rank : ranks) {
+      sum += (float) Math.pow(rank, SUM_POWER);
+      if (rank == 0) {
+        empty++;
+      }
+      else {
+        if (previous == rank) {
+          counter++;
+        }
+        else if (counter > 0) {
+          merges += 1 + counter;
+          counter = 0;
+        }
+        previous = rank;
+      }
+    }
+    if (counter > 0) {
+      merges += 1 + counter;
+    }
+
+    float monotonicityLeft = 0.0f;
+    float monotonicityRight = 0.0f;
+    for (int i = 1; i < 4; i++) {
+      float difference = (float) (Math.pow(ranks[i - 1], MONOTONICITY_POWER)
+                                  - Math.pow(ranks[i], MONOTONICITY_POWER));
+      if (ranks[i - 1] > ranks[i]) {
+        monotonicityLeft += difference;
+      }
+      else {
+        monotonicityRight -= difference;
+      }
+    }
+
+    return LOST_PENALTY + EMPTY_WEIGHT * empty + MERGES_WEIGHT * merges -
+      MONOTONICITY_WEIGHT * Math.min(monotonicityLeft, monotonicityRight) -
+      SUM_WEIGHT * sum;
+  }
+
+  // Return the number of nodes searched so far
+  public long getNodeCount() {
+    return nodes;
+  }
+
+  // Return the depth of the last search that finished in time
+  public int getCompletedDepth() {
+    return completedDepth;
+  }
+
+  // Return the transposition table of the solver
+  public TranspositionTable getTable() {
+    return table;
+  }
+
+  /**
+   * Name: Search (class)
+   * Purpose: the sequential chance and max nodes, with the clock and
+   *          node count of one thread. ParallelExpectimaxSolver runs
+   *          them deep in its tasks and shares the stop flags of all
+   *          tasks by overriding outOfTime(), stop() and reachDepthLimit().
+   */
+  static class Search {
+    private final TranspositionTable table;
+    private final long timeBudgetNanos;
+    private final long deadline;
+    private long nodes;
+    //nodes left until the clock is read again, every node counts
+    private int clockCountdown = CLOCK_INTERVAL;
+    private boolean outOfTime;
+    private boolean reachedDepthLimit;
+
+    /**
+     * Constructs a search
+     * @param TranspositionTable table: the table of searched positions
+     * @param long timeBudgetNanos: time of the search, 0 for no limit
+     * @param long deadline: System.nanoTime() when time runs out
+     */
+    Search(TranspositionTable table, long timeBudgetNanos, long deadline) {
+      this.table = table;
+      this.timeBudgetNanos = timeBudgetNanos;
+      this.deadline = deadline;
+    }
+
+    // Return the number of nodes searched
+    long getNodeCount() {
+      return nodes;
+    }
+
+    // Return whether the search ran out of time
+    boolean outOfTime() {
+      return outOfTime;
+    }
+
+    // Stop the search, its time ran out
+    void stop() {
+      this.outOfTime = true;
+    }
+
+    // Note that a branch was cut off by the depth limit
+    void reachDepthLimit() {
+      this.reachedDepthLimit = true;
+    }
+
+    /**
+     * Stops the search if its time ran out, reading the clock once every
+     * CLOCK_INTERVAL nodes
+     */
+    private void checkClock() {
+      if (--this.clockCountdown == 0) {
+        this.clockCountdown = CLOCK_INTERVAL;
+        if (this.timeBudgetNanos > 0 && System.nanoTime() > this.deadline) {
+          this.stop();
+        }
+      }
+    }
+
+    /**
+     * Computes the expected value over all random tiles
+     * @param long board - the board after a player move
+     * @param int depth - remaining player moves
+     * @param float probability - probability of reaching this node
+     * @return float - the expected value
+     */
+    float chanceNode(long board, int depth, float probability) {
+      this.checkClock();
+      if (depth <= 0) {
+        this.reachDepthLimit();
+        return evaluate(board);
+      }
+      if (probability < PROBABILITY_CUTOFF) {
+        return evaluate(board);
+      }
+      float cached = this.table.get(board, depth);
+      if (!Float.isNaN(cached)) {
+        return cached;
+      }
+      this.nodes++;
+      if (this.outOfTime()) {
+        return 0.0f;
+      }
+
+      int empty = BitBoard.emptyCount(board);
+      float cellProbability = probability / empty;
+      float sum = 0.0f;
+      //tries a 2 and a 4 on every empty tile
+      for (int shift = 0; shift < 64; shift += 4) {
+        if (((board >>> shift) & 0xFL) != 0) {
+          continue;
+        }
+        sum += this.maxNode(board | (1L << shift), depth,
+                            cellProbability * TWO_PROBABILITY)
+          * TWO_PROBABILITY;
+        sum += this.maxNode(board | (2L << shift), depth,
+                            cellProbability * (1.0f - TWO_PROBABILITY))
+          * (1.0f - TWO_PROBABILITY);
+      }
+      float value = sum / empty;
+      if (!this.outOfTime()) {
+        this.table.put(board, depth, value);
+      }
+      return value;
+    }
+
+    /**
+     * Computes the value of the best player move
+     * @param long board - the board after a random tile was added
+     * @param int depth - remaining player moves
+     * @param float probability - probability of reaching this node
+     * @return float - the value of the best move, 0 if the game is over
+     */
+    float maxNode(long board, int depth, float probability) {
+      this.nodes++;
+      this.checkClock();
+      float best = 0.0f;
+      for (Direction direction : DIRECTIONS) {
+        long moved = MoveTables.move(board, direction);
+        if (moved != board) {
+          best = Math.max(best,
+                          this.chanceNode(moved, depth - 1, probability));
+        }
+      }
+      return best;
+    }
+  }
+}
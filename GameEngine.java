@@ -0,0 +1,207 @@
+//package G2048;
+
+//------------------------------------------------------------------//
+//  Name: Bilguun Bulgan
+//  File: GameEngine.java
+//
+//  This file runs a game on its own thread, so that moving the tiles of
+//  a large board never blocks the thread that draws it. Commands (moves,
+//  rotations, saving) are put into a bounded queue and carried out one
+//  after the other by the engine thread. After every command the tiles
+//  that changed are published; a renderer takes all changes published
+//  since its last visit at once, so it draws at most once per frame no
+//  matter how many commands were carried out in between.
+//------------------------------------------------------------------//
+
+import java.io.*;
+import java.util.concurrent.*;
+
+/**
+ * Class name: GameEngine
+ * Purpose: Owns a Board on a background thread, takes commands from a
+ * queue and publishes the changed tiles, the score and the game over
+ * state for a renderer.
+ */
+public class GameEngine {
+
+  /**
+   * Name: Command (interface)
+   * Purpose: something the engine thread does with the board
+   */
+  public interface Command {
+    void apply(Board board) throws IOException;
+  }
+
+  private final Board board;
+  private final BlockingQueue<Command> commands;
+  private final Thread thread;
+
+  //tiles changed by the last command, only used by the engine thread
+  private final int[] changedCells;
+
+  //published state, guarded by lock; the published tiles are the latest
+  //value of every tile and the tiles not yet taken by the renderer
+  private final Object lock = new Object();
+  private final int[] latest;
+  private final long[] pendingBits;
+  private final int[] pendingCells;
+  private int pendingCount;
+  private long score;
+  private boolean gameOver;
+
+  //changes every time something is published, read without the lock
+  private volatile long version;
+
+  /**
+   * Constructs an engine for a board, the board must not be used by any
+   * other thread after start()
+   * @param Board board: the board to play on
+   * @param int queueCapacity: commands that may wait at once
+   */
+  public GameEngine(Board board, int queueCapacity) {
+    this.board = board;
+    this.commands = new ArrayBlockingQueue<Command>(queueCapacity);
+    int tiles = board.GRID_SIZE * board.GRID_SIZE;
+    this.changedCells = new int[tiles];
+    this.latest = new int[tiles];
+    this.pendingBits = new long[(tiles + 63) >>> 6];
+    this.pendingCells = new int[tiles];
+
+    for (int cell = 0; cell < tiles; cell++) {
+      this.latest[cell] = board.getTile(cell / board.GRID_SIZE,
+                                        cell % board.GRID_SIZE);
+    }
+    this.score = board.getScore();
+    this.gameOver = board.isGameOver();
+    board.startTrackingChanges();
+
+    this.thread = new Thread(this::run, "GameEngine");
+    this.thread.setDaemon(true);
+  }
+
+  /**
+   * Starts the engine thread
+   */
+  public void start() {
+    this.thread.start();
+  }
+
+  /**
+   * Stops the engine thread, waiting commands are dropped
+   */
+  public void shutdown() {
+    this.thread.interrupt();
+  }
+
+  /**
+   * Queues a command without waiting
+   * @param Command command - what to do with the board
+   * @return boolean - false if the queue is full and the command was
+   *                   dropped
+   */
+  public boolean submit(Command command) {
+    return this.commands.offer(command);
+  }
+
+  /**
+   * Queues a move: if it is possible, the tiles are moved and a random
+   * tile is added
+   * @param Direction direction - direction of the move
+   * @return boolean - false if the queue is full and the move was dropped
+   */
+  public boolean submitMove(Direction direction) {
+    return this.submit(board -> {
+      if (board.canMove(direction)) {
+        board.move(direction);
+        board.addRandomTile();
+        System.out.println("Moving " + direction.name().toLowerCase());
+      }
+    });
+  }
+
+  // Return a number that changes whenever new changes are published
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Takes all tiles changed since the last call, with their values
+   * @param int[] cells - receives the tiles, row * GRID_SIZE + column;
+   *                      at least GRID_SIZE * GRID_SIZE ints
+   * @param int[] values - receives the new values of the tiles
+   * @return int - the number of changed tiles
+   */
+  public int takeChanges(int[] cells, int[] values) {
+    synchronized (this.lock) {
+      int count = this.pendingCount;
+      for (int i = 0; i < count; i++) {
+        int cell = this.pendingCells[i];
+        cells[i] = cell;
+        values[i] = this.latest[cell];
+        this.pendingBits[cell >>> 6] &= ~(1L << cell);
+      }
+      this.pendingCount = 0;
+      return count;
+    }
+  }
+
+  // Return the score published last
+  public long getScore() {
+    synchronized (this.lock) {
+      return this.score;
+    }
+  }
+
+  // Return true if the board published last has no possible moves
+  public boolean isGameOver() {
+    synchronized (this.lock) {
+      return this.gameOver;
+    }
+  }
+
+  /**
+   * Carries out the queued commands until the engine is shut down
+   */
+  private void run() {
+    try {
+      while (true) {
+        Command command = this.commands.take();
+        try {
+          command.apply(this.board);
+        } catch (IOException e) {
+          System.out.println(e.getClass().getName() +
+                             " was thrown by a command: " + e.getMessage());
+        }
+        this.publish();
+      }
+    } catch (InterruptedException e) {
+      //shut down
+    }
+  }
+
+  /**
+   * Publishes the tiles changed by the last command, the score and the
+   * game over state
+   */
+  private void publish() {
+    int count = this.board.takeChangedTiles(this.changedCells);
+    int size = this.board.GRID_SIZE;
+    long newScore = this.board.getScore();
+    boolean over = this.board.isGameOver();
+
+    synchronized (this.lock) {
+      for (int i = 0; i < count; i++) {
+        int cell = this.changedCells[i];
+        this.latest[cell] = this.board.getTile(cell / size, cell % size);
+        long bit = 1L << cell;
+        if ((this.pendingBits[cell >>> 6] & bit) == 0) {
+          this.pendingBits[cell >>> 6] |= bit;
+          this.pendingCells[this.pendingCount++] = cell;
+        }
+      }
+      this.score = newScore;
+      this.gameOver = over;
+    }
+    this.version++;
+  }
+}
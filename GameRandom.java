@@ -0,0 +1,69 @@
+//package G2048;
+
+//------------------------------------------------------------------//
+//  Name: Bilguun Bulgan
+//  File: GameRandom.java
+//
+//  This file is a random generator whose state can be read and set
+//  again. It uses the same linear congruential generator as
+//  java.util.Random, so a GameRandom and a Random created with the same
+//  seed give the same numbers, but unlike Random the 48 bit state can
+//  be saved with a board and restored later. ReplayEngine uses it to
+//  continue a recorded game from the middle instead of from its seed.
+//------------------------------------------------------------------//
+
+import java.util.*;
+
+/**
+ * Class name: GameRandom
+ * Purpose: java.util.Random compatible generator with a readable state.
+ * Not meant to be shared between threads.
+ */
+public final class GameRandom extends Random {
+
+  private static final long serialVersionUID = 1L;
+
+  //constants of java.util.Random
+  private static final long MULTIPLIER = 0x5DEECE66DL;
+  private static final long ADDEND = 0xBL;
+  private static final long MASK = (1L << 48) - 1;
+
+  private long state;
+
+  /**
+   * Constructs a generator that gives the numbers of new Random(seed)
+   * @param long seed: the seed
+   */
+  public GameRandom(long seed) {
+    super(seed);
+    this.state = (seed ^ MULTIPLIER) & MASK;
+  }
+
+  @Override
+  public synchronized void setSeed(long seed) {
+    super.setSeed(seed);
+    this.state = (seed ^ MULTIPLIER) & MASK;
+  }
+
+  /**
+   * Returns the state of the generator, nextGaussian() excluded
+   * @return long - the 48 bit state
+   */
+  public long getState() {
+    return state;
+  }
+
+  /**
+   * Sets the state of the generator, as returned by getState()
+   * @param long state - the 48 bit state
+   */
+  public void setState(long state) {
+    this.state = state & MASK;
+  }
+
+  @Override
+  protected int next(int bits) {
+    this.state = (this.state * MULTIPLIER + ADDEND) & MASK;
+    return (int) (this.state >>> (48 - bits));
+  }
+}
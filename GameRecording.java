@@ -0,0 +1,85 @@
+//package G2048;
+
+//------------------------------------------------------------------//
+//  Name: Bilguun Bulgan
+//  File: GameRecording.java
+//
+//  This file records a game as the seed of its random generator and
+//  the list of its moves. After every move the game adds a random tile,
+//  like GameEngine and Simulator do, so the seed decides every added
+//  tile and the whole game can be played again from these few bytes.
+//  A move takes one byte here; ReplayEngine plays recordings back.
+//------------------------------------------------------------------//
+
+import java.util.*;
+
+/**
+ * Class name: GameRecording
+ * Purpose: Seed and moves of a game, enough to play it again.
+ */
+public class GameRecording {
+
+  private static final Direction[] DIRECTIONS = Direction.values();
+
+  private final int gridSize;
+  private final long seed;
+  //ordinal of every move, in the order they were made
+  private byte[] moves;
+  private int moveCount;
+
+  /**
+   * Constructs an empty recording
+   * @param int gridSize: the size of the board
+   * @param long seed: the seed of the random generator of the board
+   */
+  public GameRecording(int gridSize, long seed) {
+    this.gridSize = gridSize;
+    this.seed = seed;
+    this.moves = new byte[64];
+  }
+
+  /**
+   * Creates the board the recorded game starts with, its start tiles
+   * already added
+   * @return Board - a new board, with a GameRandom seeded for the game
+   */
+  public Board newBoard() {
+    return new Board(this.gridSize, new GameRandom(this.seed));
+  }
+
+  /**
+   * Adds a move to the end of the recording
+   * @param Direction direction - the move, which was followed by a random
+   *                              tile
+   */
+  public void addMove(Direction direction) {
+    if (this.moveCount == this.moves.length) {
+      this.moves = Arrays.copyOf(this.moves, this.moves.length * 2);
+    }
+    this.moves[this.moveCount++] = (byte) direction.ordinal();
+  }
+
+  // Return the size of the board
+  public int getGridSize() {
+    return gridSize;
+  }
+
+  // Return the seed of the random generator of the board
+  public long getSeed() {
+    return seed;
+  }
+
+  // Return the number of recorded moves
+  public int getMoveCount() {
+    return moveCount;
+  }
+
+  // Return a recorded move, 0 is the first one
+  public Direction getMove(int move) {
+    if (move < 0 || move >= moveCount) {
+      throw new IndexOutOfBoundsException("Move " + move + " of " +
+                                          moveCount);
+    }
+    return DIRECTIONS[moves[move]];
+  }
+}
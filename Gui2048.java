@@ -9,8 +9,11 @@
 //  a board, save a board to a file, rotate the board. The GUI is also
 //  resizable. This class also contains inner classes Tile (which helps
 //  to keep track of the numbers on the tile and the color of the tile)
-//  and myKeyHandler (which handles key input).
+//  and myKeyHandler (which handles key input). The moves themselves are
+//  carried out by a GameEngine on its own thread, and the GUI draws what
+//  the engine published once per frame.
 //------------------------------------------------------------------//
+import javafx.animation.*;
 import javafx.application.*;
 import javafx.scene.control.*;
 import javafx.scene.*;
@@ -33,6 +36,13 @@ public class Gui2048 extends Application
 	// the static variables
 	private static final int TILE_WIDTH = 106;
 
+	// Boards larger than this are drawn on a single canvas (BoardCanvas) 
+	// instead of a node for every tile
+	private static final int CANVAS_GRID_SIZE = 24;
+
+	// Key presses that may wait for the engine, more are dropped
+	private static final int INPUT_QUEUE_SIZE = 8;
+
 	private static final int TEXT_SIZE_LOW = 50; // Low value tiles (2,4,8,etc)
 	private static final int TEXT_SIZE_MID = 40; // Mid value tiles 
 	//(128, 256, 512)
@@ -61,16 +71,33 @@ public class Gui2048 extends Application
 	private static final Color COLOR_VALUE_DARK = Color.rgb(119, 110, 101); 
 	// For tiles < 8
 
+	// Fill and text colors of every tile value, indexed by the exponent of 
+	// the value (0 for empty tiles), so they are picked once and not per move
+	private static final Color[] TILE_COLORS = {COLOR_EMPTY, COLOR_2, 
+		COLOR_4, COLOR_8, COLOR_16, COLOR_32, COLOR_64, COLOR_128, COLOR_256, 
+		COLOR_512, COLOR_1024, COLOR_2048};
+	private static final int EXPONENTS = 32;
+
+	// Fonts of the tile values, indexed like the colors, created once
+	private final Font[] tileFonts = createTileFonts();
+
 	private GridPane pane;
 
 
 	private Tile[][] tileArray;  //2D array of Tiles that keep the color and 
-	//the number on a tile
+	//the number on a tile, null if the board is drawn on boardCanvas
+	private BoardCanvas boardCanvas; //draws large boards, null for small ones
 	private Text scoreText;      //contains the score
 	private Scene scene;         
 	private StackPane stack;     //the bottommost pane
 	private boolean isAlreadyGameOver; //keeps track of if showGameOver() is
 	//used only once
+	private GameEngine engine;   //moves the tiles on its own thread
+	private AnimationTimer renderer; //calls updateGUI() once per frame
+	private int[][] shownGrid;   //the tiles as they are shown right now
+	private int[] changedCells;  //tiles changed since the last updateGUI()
+	private int[] changedValues; //and their new values
+	private long shownVersion = -1; //engine version shown right now
 
 	/** 
 	 * Sets the groundwork of starting the game  
@@ -101,31 +128,74 @@ public class Gui2048 extends Application
 			primaryStage.setScene(scene);
 			primaryStage.show();
 
-			//initializing a tile array from the current state of the board
-			//and showing it (adds to the pane)
-			tileArray = initTileArr(board);
-			showTileArr(tileArray);
+			//the GUI keeps its own copy of the tiles, the board itself 
+			//belongs to the engine thread once it is started
+			shownGrid = board.getGrid();
+			changedCells = new int[board.GRID_SIZE * board.GRID_SIZE];
+			changedValues = new int[board.GRID_SIZE * board.GRID_SIZE];
 
 			//setting 2048 title on the upper left corner
 			Text title = new Text();
 			title.setText("2048");
 			title.setFont(Font.font("Times New Roman", FontWeight.BOLD, 30));
 			GridPane.setHalignment(title, HPos.CENTER);
-			pane.add(title, 0,0,2,1);
 
 			//adding score indicator on the top right of the game
 			scoreText = new Text();
 			scoreText.setText("Score: " +board.getScore());
 			scoreText.setFont(Font.font("Times New Roman", FontWeight.BOLD, 30));
-			pane.add(scoreText, board.GRID_SIZE-2,0,2,1);
 			GridPane.setHalignment(scoreText, HPos.CENTER);
 
+			if (board.GRID_SIZE > CANVAS_GRID_SIZE) {
+				//large boards are drawn on one canvas that fills the window
+				boardCanvas = new BoardCanvas(board.GRID_SIZE);
+				boardCanvas.widthProperty().bind(scene.widthProperty().subtract(40));
+				boardCanvas.heightProperty().bind(scene.heightProperty().subtract(90));
+				pane.add(title, 0,0);
+				pane.add(scoreText, 1,0);
+				pane.add(boardCanvas, 0,1,2,1);
+				boardCanvas.drawAll(shownGrid);
+			}
+			else {
+				//initializing a tile array from the current state of the board
+				//and showing it (adds to the pane)
+				tileArray = initTileArr(board);
+				showTileArr(tileArray);
+				pane.add(title, 0,0,2,1);
+				pane.add(scoreText, board.GRID_SIZE-2,0,2,1);
+			}
+
+			//starts the engine, then draws what it published once per frame
+			engine = new GameEngine(board, INPUT_QUEUE_SIZE);
+			engine.start();
+			renderer = new AnimationTimer() {
+				@Override
+					public void handle(long now) {
+						updateGUI();
+					}
+			};
+			renderer.start();
+
 			//registers the handler to the scene
 			scene.setOnKeyPressed(new myKeyHandler());
 
 
 		}
 
+	/** 
+	 * Stops the engine thread when the window is closed
+	 */
+	@Override
+		public void stop()
+		{
+			if (renderer != null) {
+				renderer.stop();
+			}
+			if (engine != null) {
+				engine.shutdown();
+			}
+		}
+
 
 	/** 
 	 * Initializes a 2D tile array according to the values (numbers)
@@ -189,36 +259,98 @@ public class Gui2048 extends Application
 	/** 
 	 * Updates the player's score on the GUI after the user's move
 	 * 
-	 * @param int score : the score value that must be shown on the GUI 
+	 * @param long score : the score value that must be shown on the GUI 
 	 */   
-	public void updateScore(int score) {
+	public void updateScore(long score) {
 		scoreText.setText("Score: " + score);
 	}
 
 	/** 
-	 * Updates the tileArray (which will be shown on the GUI) 
-	 * according to the passed in board object that contains the 
-	 * number values of each tile
-	 * 
-	 * @param Board board : the board object from which to update the tile 
-	 *                           array
-	 * @param Tile[][] tileArr : the tile array to be update  
+	 * Updates the tileArray (which will be shown on the GUI), the score 
+	 * and the game over overlay with what the engine published. Called 
+	 * once per frame; only the tiles the engine changed since the last 
+	 * frame are touched, however many moves it made in between.
 	 */   
-	public void updateGUI(Board board, Tile[][] tileArr) {
-
-		int[][] grid = board.getGrid();
+	public void updateGUI() {
+		long version = engine.getVersion();
+		if (version == shownVersion) {
+			return;
+		}
+		shownVersion = version;
 
-		//looping through the grid and updating each tile in the tile array
-		//according to their new values
+		int[][] grid = shownGrid;
+		int count = engine.takeChanges(changedCells, changedValues);
+		for (int i = 0; i < count; i++) {
+			grid[changedCells[i] / grid.length][changedCells[i] % grid.length] = 
+				changedValues[i];
+		}
 
-		for (int row = 0; row < grid.length; row++) {
-			for (int column = 0; column < grid.length; column++) {
-				tileArr[row][column].updateTile(grid[row][column]);
+		//large boards repaint the changed tiles on the canvas
+		if (boardCanvas != null) {
+			boardCanvas.drawTiles(grid, changedCells, count);
+		}
+		else {
+			//looping through the changed tiles and updating each tile in the 
+			//tile array according to their new values
+			for (int i = 0; i < count; i++) {
+				int row = changedCells[i] / grid.length;
+				int column = changedCells[i] % grid.length;
+				tileArray[row][column].updateTile(grid[row][column]);
 			}
 		}
 
+		updateScore(engine.getScore());
+		showGameOver(engine.isGameOver());
 	} //ends updateGUI
 
+	/** 
+	 * Returns the fill color of a tile
+	 * 
+	 * @param int exponent : exponent of the tile value, 0 for empty tiles
+	 * @return Color - the color
+	 */   
+	static Color tileColor(int exponent) {
+		return (exponent < TILE_COLORS.length) ? TILE_COLORS[exponent] : 
+			COLOR_OTHER;
+	}
+
+	/** 
+	 * Returns the color of the number on a tile
+	 * 
+	 * @param int numberOnTile : the tile value
+	 * @return Color - the color
+	 */   
+	static Color textColor(int numberOnTile) {
+		return (numberOnTile < 8) ? COLOR_VALUE_DARK : COLOR_VALUE_LIGHT;
+	}
+
+	/** 
+	 * Creates the font of every tile value once
+	 * 
+	 * @return Font[] - the fonts, indexed by the exponent of the value
+	 */   
+	private static Font[] createTileFonts() {
+		Font low = Font.font("Times New Roman", FontWeight.BOLD, TEXT_SIZE_LOW);
+		Font mid = Font.font("Times New Roman", FontWeight.BOLD, TEXT_SIZE_MID);
+		Font high = Font.font("Times New Roman", FontWeight.BOLD, 
+				TEXT_SIZE_HIGH);
+		Font[] fonts = new Font[EXPONENTS];
+		for (int exponent = 0; exponent < EXPONENTS; exponent++) {
+			int numberOnTile = (exponent == 0) ? 0 : 1 << exponent;
+			//setting font size of tile depending on the value on the tile
+			if (numberOnTile < 128) {
+				fonts[exponent] = low;
+			}
+			else if (numberOnTile < 1024 && numberOnTile > 128) {
+				fonts[exponent] = mid;
+			}
+			else {
+				fonts[exponent] = high;
+			}
+		}
+		return fonts;
+	}
+
 	/** 
 	 * Puts a semi-transparent layer on the game board with the 
 	 *          message "Game Over!" if there are no more possible moves
@@ -271,6 +403,7 @@ public class Gui2048 extends Application
 		//instance variables
 		private Text text = new Text("");
 		private Rectangle square;
+		private int value = -1; //the number shown, -1 before the first update
 
 		//constructors
 
@@ -280,6 +413,9 @@ public class Gui2048 extends Application
 			text = new Text();
 			this.text.setFill(COLOR_VALUE_DARK);
 			square = new Rectangle();
+
+			//sets the number in the middle of the grid/tile
+			GridPane.setHalignment(this.getText(), HPos.CENTER);
 			this.updateTile(numberOnTile); 
 		}
 
@@ -315,10 +451,16 @@ public class Gui2048 extends Application
 
 		/** 
 		 * Updates the color and the number on the game tile according
-		 *          to the new number value of the tile after each move
+		 *          to the new number value of the tile after each move, 
+		 *          does nothing if the number didn't change
 		 * @param int numberOnTile  
 		 */
 		private void updateTile(int numberOnTile) {
+			if (numberOnTile == this.value) {
+				return;
+			}
+			this.value = numberOnTile;
+
 			//setting number on tile except 0s
 			if (numberOnTile != 0) {
 				this.setText(numberOnTile); }
@@ -327,49 +469,14 @@ public class Gui2048 extends Application
 				this.getText().setText("");
 			}
 
-			//sets the number in the middle of the grid/tile
-			GridPane.setHalignment(this.getText(), HPos.CENTER);
-
-			//setting font size of tile depending on the value on the tile
-			if (numberOnTile < 128) {
-				this.getText().setFont(Font.font("Times New Roman", 
-						FontWeight.BOLD, TEXT_SIZE_LOW));
-			}
-			else if (numberOnTile < 1024 && numberOnTile > 128) {
-				this.getText().setFont(Font.font("Times New Roman", 
-						FontWeight.BOLD, TEXT_SIZE_MID));
-			}
-			else {
-				this.getText().setFont(Font.font("Times New Roman", 
-						FontWeight.BOLD, TEXT_SIZE_HIGH));
-			}
-
-			//setting the text color of the tile depending on value 
-			if (numberOnTile < 8) {
-				this.text.setFill(COLOR_VALUE_DARK);
-			}
+			//the font and colors are looked up by the exponent of the value
+			int exponent = (numberOnTile == 0) ? 0 : 
+				Integer.numberOfTrailingZeros(numberOnTile);
+			this.getText().setFont(tileFonts[exponent]);
 
-			else if (numberOnTile >= 8) {
-				this.getText().setFill(COLOR_VALUE_LIGHT);
-			} 
-
-
-			//setting the tile color
-			switch (numberOnTile) {
-				case 0: this.setColor(COLOR_EMPTY); break;
-				case 2: this.setColor(COLOR_2); break; 
-				case 4: this.setColor(COLOR_4); break; 
-				case 8: this.setColor(COLOR_8); break; 
-				case 16: this.setColor(COLOR_16); break; 
-				case 32: this.setColor(COLOR_32); break; 
-				case 64: this.setColor(COLOR_64); break; 
-				case 128: this.setColor(COLOR_128); break;
-				case 256: this.setColor(COLOR_256); break;  
-				case 512: this.setColor(COLOR_512); break; 
-				case 1024: this.setColor(COLOR_1024); break; 
-				case 2048: this.setColor(COLOR_2048); break; 
-				default: this.setColor(COLOR_OTHER); break;
-			}
+			//setting the text color and the tile color depending on value 
+			this.getText().setFill(textColor(numberOnTile));
+			this.setColor(tileColor(exponent));
 
 		} //ends updateTile 
 	} // ends tile class
@@ -385,115 +492,40 @@ public class Gui2048 extends Application
 			public void handle (KeyEvent e) {
 				switch (e.getCode()) {
 
-					//when user presses up arrow key
+					//when user presses an arrow key, the move is queued for 
+					//the engine (or dropped if too many keys are waiting)
 					case UP: 
-
-						//if the board has no possible moves, 
-						//displayes the game over overlay
-						showGameOver(board.isGameOver());
-						if (board.canMove(Direction.UP)) {
-							//moves and adds a random tile on the board
-							board.move(Direction.UP);
-							board.addRandomTile();
-
-							//updates the score and the gameboard on GUI
-							updateGUI(board, tileArray);
-							updateScore(board.getScore());
-
-							//prints on the consile
-							System.out.println("Moving up");
-						}
-						//checks again after moving if there are no possible 
-						//moves left, if not, displays the game over overlay
-						showGameOver(board.isGameOver());
+						engine.submitMove(Direction.UP);
 						break;
 
-
-
 					case DOWN: 
-
-						//if the board has no possible moves, 
-						//displayes the game over overlay
-						showGameOver(board.isGameOver());
-						if (board.canMove(Direction.DOWN)) {
-							//moves and adds a random tile on the board 
-							board.move(Direction.DOWN);
-							board.addRandomTile();
-
-							//updates the score and the gameboard on GUI
-							updateGUI(board, tileArray);
-							updateScore(board.getScore());
-
-							//prints on the consile
-							System.out.println("Moving down");
-						}
-						//checks again after moving if there are no 
-						//possible moves left, if not, displays the game over overlay
-						showGameOver(board.isGameOver());
+						engine.submitMove(Direction.DOWN);
 						break;
 
-
-
 					case LEFT: 
-						//if the board has no possible moves, 
-						//displayes the game over overlay 
-						showGameOver(board.isGameOver());
-						if (board.canMove(Direction.LEFT)) {
-							//moves and adds a random tile on the board 
-							board.move(Direction.LEFT);
-							board.addRandomTile();
-
-							//updates the score and the gameboard on GUI
-							updateGUI(board, tileArray);
-							updateScore(board.getScore());
-
-							//prints on the consile
-							System.out.println("Moving left");
-						}
-						//checks again after moving if there are no possible moves left, if not,
-						//displays the game over overlay
-						showGameOver(board.isGameOver());
+						engine.submitMove(Direction.LEFT);
 						break;
 
-
-
 					case RIGHT: 
-						//if the board has no possible moves, 
-						//displayes the game over overlay 
-						showGameOver(board.isGameOver());
-						if (board.canMove(Direction.RIGHT)) {
-							//moves and adds a random tile on the board 
-							board.move(Direction.RIGHT);
-							board.addRandomTile();
-
-							//updates the score and the gameboard on GUI
-							updateGUI(board, tileArray);
-							updateScore(board.getScore());
-
-							//prints on the consile
-							System.out.println("Moving right");
-						}
-						//checks again after moving if there are no possible 
-						//moves left, if not, displays the game over overlay
-						showGameOver(board.isGameOver());
+						engine.submitMove(Direction.RIGHT);
 						break;
 
 						//rotates the board clockwise if the user presses "r" 
 					case R: 
-						board.rotate(true);
-						updateGUI(board, tileArray);
-						updateScore(board.getScore());
+						engine.submit(board -> board.rotate(true));
 						break;
 
 						//saves the board of the user presses "s" 
 					case S:
-						try {
-							board.saveBoard(outputBoard); 
-						}
-						catch (Exception ex) {
-							System.out.println("SaveBoard threw an exception");
-						}
-						System.out.println("Saving board to " + outputBoard);
+						engine.submit(board -> {
+							try {
+								board.saveBoard(outputBoard); 
+							}
+							catch (Exception ex) {
+								System.out.println("SaveBoard threw an exception");
+							}
+							System.out.println("Saving board to " + outputBoard);
+						});
 				}   
 			} // ends handle method
 
@@ -0,0 +1,686 @@
+//package G2048;
+
+//------------------------------------------------------------------//
+//  Name: Bilguun Bulgan
+//  File: MoveLogArchive.java
+//
+//  This file stores the move logs of many games in a single binary
+//  file. A game is kept as its start tiles and, for every move, the
+//  direction in 2 bits, the tile added after it as a cell index of
+//  ceil(log2(n * n)) bits and 1 bit for a 2 or a 4. On a 4x4 board that
+//  is 7 bits per move instead of a whole board. The games are grouped
+//  into blocks of a fixed number of games, every block has a CRC32, and
+//  an index of the blocks at the end of the file leads to any game
+//  after skipping at most one block's worth of games. The archive is
+//  memory-mapped when it is opened and reading the games in order never
+//  looks anything up, so whole archives are scanned at disk speed.
+//------------------------------------------------------------------//
+/**
+ * File layout (all numbers big-endian)
+ * <p/>
+ *   int   magic           0x3230344D ("204M")
+ *   int   version         1
+ *   int   grid size       n
+ *   int   games per block
+ *   long  game count
+ *   long  index offset
+ *   blocks, each a sequence of games:
+ *     int   move count
+ *     byte  start tile count
+ *     bits  every start tile (cell, 4 bit), then every move (direction,
+ *           cell, 4 bit), least significant bit first, padded to a byte
+ *   index, for every block:
+ *     long  offset of the block
+ *     int   length of the block in bytes
+ *     int   CRC32 of the block
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Class name: MoveLogArchive
+ * Purpose: Reader of a memory-mapped archive of bit-packed move logs.
+ * The nested Writer class creates archives, the nested Game class holds
+ * one decoded game.
+ */
+public class MoveLogArchive implements Closeable {
+
+  public static final int MAGIC = 0x3230344D; // "204M"
+  public static final int VERSION = 1;
+  public static final int HEADER_BYTES = 32;
+  public static final int DEFAULT_GAMES_PER_BLOCK = 1024;
+
+  //bytes of an index entry: offset, length and CRC32 of a block
+  private static final int INDEX_ENTRY_BYTES = 16;
+
+  //bytes in front of the bits of every game
+  private static final int GAME_HEADER_BYTES = 5;
+
+  //largest part of the file mapped by one buffer
+  private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+  private static final Direction[] DIRECTIONS = Direction.values();
+
+  private final FileChannel channel;
+  private final MappedByteBuffer[] segments;
+  private final int gridSize;
+  private final int cellBits;
+  private final int gamesPerBlock;
+  private final long gameCount;
+
+  //for every block: its segment, position in the segment, length, CRC32
+  private final int[] blockSegments;
+  private final int[] blockPositions;
+  private final int[] blockBytes;
+  private final int[] blockCrcs;
+
+  //where the game after the last one read starts, so that reading the
+  //games in order doesn't skip through their blocks
+  private long nextGame = -1;
+  private int nextBlock;
+  private int nextPosition;
+
+  /**
+   * Opens and maps an archive
+   * @param String archiveFile: name of the archive file
+   */
+  public MoveLogArchive(String archiveFile) throws IOException {
+    this.channel = FileChannel.open(Paths.get(archiveFile),
+                                    StandardOpenOption.READ);
+    try {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      BinaryBoardFormat.readFully(this.channel, header);
+      this.gridSize = BinaryBoardFormat.checkHeader(header, MAGIC, VERSION,
+                                                    archiveFile);
+      this.cellBits = cellBits(this.gridSize);
+      this.gamesPerBlock = header.getInt(12);
+      this.gameCount = header.getLong(16);
+      long indexOffset = header.getLong(24);
+      if (this.gamesPerBlock < 1 || this.gameCount < 0) {
+        throw new IOException(archiveFile + " has a damaged header");
+      }
+      long blocks = (this.gameCount + this.gamesPerBlock - 1) /
+        this.gamesPerBlock;
+      if (blocks * INDEX_ENTRY_BYTES > Integer.MAX_VALUE ||
+          indexOffset < HEADER_BYTES || this.channel.size() !=
+          indexOffset + blocks * INDEX_ENTRY_BYTES) {
+        throw new IOException(archiveFile + " has the wrong length");
+      }
+
+      int count = (int) blocks;
+      ByteBuffer index = ByteBuffer.allocate(count * INDEX_ENTRY_BYTES);
+      this.channel.position(indexOffset);
+      BinaryBoardFormat.readFully(this.channel, index);
+      this.blockSegments = new int[count];
+      this.blockPositions = new int[count];
+      this.blockBytes = new int[count];
+      this.blockCrcs = new int[count];
+
+      //maps whole blocks only, so no block spans two segments
+      List<MappedByteBuffer> mapped = new ArrayList<MappedByteBuffer>();
+      long segmentStart = HEADER_BYTES;
+      long segmentEnd = HEADER_BYTES;
+      for (int block = 0; block < count; block++) {
+        long offset = index.getLong(block * INDEX_ENTRY_BYTES);
+        int bytes = index.getInt(block * INDEX_ENTRY_BYTES + 8);
+        if (offset != segmentEnd || bytes < 0) {
+          throw new IOException(archiveFile + " has a damaged index");
+        }
+        if (offset + bytes - segmentStart > MAX_SEGMENT_BYTES &&
+            segmentEnd > segmentStart) {
+          mapped.add(this.channel.map(FileChannel.MapMode.READ_ONLY,
+                                      segmentStart,
+                                      segmentEnd - segmentStart));
+          segmentStart = segmentEnd;
+        }
+        this.blockSegments[block] = mapped.size();
+        this.blockPositions[block] = (int) (offset - segmentStart);
+        this.blockBytes[block] = bytes;
+        this.blockCrcs[block] = index.getInt(block * INDEX_ENTRY_BYTES + 12);
+        segmentEnd = offset + bytes;
+      }
+      if (segmentEnd != indexOffset) {
+        throw new IOException(archiveFile + " has a damaged index");
+      }
+      if (segmentEnd > segmentStart) {
+        mapped.add(this.channel.map(FileChannel.MapMode.READ_ONLY,
+                                    segmentStart, segmentEnd - segmentStart));
+      }
+      this.segments = mapped.toArray(new MappedByteBuffer[0]);
+    } catch (IOException e) {
+      this.channel.close();
+      throw e;
+    }
+  }
+
+  // Return the number of games in the archive
+  public long size() {
+    return gameCount;
+  }
+
+  // Return the grid size of the games in the archive
+  public int getGridSize() {
+    return gridSize;
+  }
+
+  // Return the number of blocks in the archive
+  public int getBlockCount() {
+    return blockBytes.length;
+  }
+
+  /**
+   * Decodes a game. Reading the games in order is fastest; the archive
+   * remembers where the next game starts, so it must not be read by
+   * several threads at once.
+   * @param long index - number of the game, 0 for the first one
+   * @param Game target - receives the start tiles and moves of the game
+   */
+  public void readGame(long index, Game target) throws IOException {
+    if (index < 0 || index >= this.gameCount) {
+      throw new IndexOutOfBoundsException("Game " + index + " of " +
+                                          this.gameCount);
+    }
+    int block;
+    int position;
+    if (index == this.nextGame) {
+      block = this.nextBlock;
+      position = this.nextPosition;
+    }
+    else {
+      //skips the games in front of it in its block
+      block = (int) (index / this.gamesPerBlock);
+      position = 0;
+      MappedByteBuffer buffer = this.segments[this.blockSegments[block]];
+      for (long game = (long) block * this.gamesPerBlock; game < index;
+           game++) {
+        position += this.gameBytes(buffer,
+                                   this.blockPositions[block] + position);
+      }
+    }
+
+    MappedByteBuffer buffer = this.segments[this.blockSegments[block]];
+    int start = this.blockPositions[block] + position;
+    int length = this.gameBytes(buffer, start);
+    if (position + length > this.blockBytes[block]) {
+      throw new IOException("Game " + index + " runs past its block");
+    }
+    this.decode(buffer, start, target);
+
+    //remembers where the next game starts
+    position += length;
+    this.nextGame = index + 1;
+    if (position == this.blockBytes[block]) {
+      this.nextBlock = block + 1;
+      this.nextPosition = 0;
+    }
+    else {
+      this.nextBlock = block;
+      this.nextPosition = position;
+    }
+  }
+
+  /**
+   * Checks the checksum of a block
+   * @param int block - number of the block
+   * @return boolean - true if the block isn't damaged
+   */
+  public boolean verify(int block) {
+    ByteBuffer data = this.segments[this.blockSegments[block]].duplicate();
+    data.limit(this.blockPositions[block] + this.blockBytes[block])
+      .position(this.blockPositions[block]);
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    return (int) crc.getValue() == this.blockCrcs[block];
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.channel.close();
+  }
+
+  /**
+   * Computes the length of a game from its move and start tile counts
+   */
+  private int gameBytes(ByteBuffer buffer, int position) {
+    long moves = buffer.getInt(position) & 0xFFFFFFFFL;
+    int starts = buffer.get(position + 4) & 0xFF;
+    long bits = starts * (this.cellBits + 1L) + moves * (this.cellBits + 3L);
+    return (int) (GAME_HEADER_BYTES + (bits + 7) / 8);
+  }
+
+  /**
+   * Unpacks the start tiles and moves of a game
+   */
+  private void decode(ByteBuffer buffer, int position, Game target)
+    throws IOException {
+    int moves = buffer.getInt(position);
+    int starts = buffer.get(position + 4) & 0xFF;
+    int tiles = this.gridSize * this.gridSize;
+    target.reset(this.gridSize, starts, moves);
+
+    long bits = 0;
+    int available = 0;
+    int next = position + GAME_HEADER_BYTES;
+    for (int i = 0; i < starts + moves; i++) {
+      //every entry is at most 34 bits, the buffer holds 64
+      int needed = ((i < starts) ? 0 : 2) + this.cellBits + 1;
+      while (available < needed) {
+        bits |= (long) (buffer.get(next++) & 0xFF) << available;
+        available += 8;
+      }
+      int direction = 0;
+      if (i >= starts) {
+        direction = (int) bits & 3;
+        bits >>>= 2;
+      }
+      int cell = (int) (bits & ((1L << this.cellBits) - 1));
+      bits >>>= this.cellBits;
+      int tile = ((bits & 1) == 0) ? 2 : 4;
+      bits >>>= 1;
+      available -= needed;
+      if (cell >= tiles) {
+        throw new IOException("Game has invalid tile " + cell);
+      }
+      if (i < starts) {
+        target.startCells[i] = cell;
+        target.startValues[i] = tile;
+      }
+      else {
+        target.directions[i - starts] = DIRECTIONS[direction];
+        target.spawnCells[i - starts] = cell;
+        target.spawnValues[i - starts] = tile;
+      }
+    }
+  }
+
+  /**
+   * Returns the bits needed for a cell index of a board
+   */
+  private static int cellBits(int gridSize) {
+    return 32 - Integer.numberOfLeadingZeros(gridSize * gridSize - 1);
+  }
+
+  /**
+   * Name: Game (class)
+   * Purpose: the start tiles and moves of one game, filled again by
+   *          every readGame() call
+   */
+  public static final class Game {
+    private int gridSize;
+    private int startCount;
+    private int[] startCells = new int[0];
+    private int[] startValues = new int[0];
+    private int moveCount;
+    private Direction[] directions = new Direction[0];
+    private int[] spawnCells = new int[0];
+    private int[] spawnValues = new int[0];
+
+    // Return the size of the board
+    public int getGridSize() {
+      return gridSize;
+    }
+
+    // Return the number of tiles the game starts with
+    public int getStartCount() {
+      return startCount;
+    }
+
+    // Return where a start tile is, row * size + column
+    public int getStartCell(int tile) {
+      return startCells[tile];
+    }
+
+    // Return the value of a start tile
+    public int getStartValue(int tile) {
+      return startValues[tile];
+    }
+
+    // Return the number of moves of the game
+    public int getMoveCount() {
+      return moveCount;
+    }
+
+    // Return the direction of a move
+    public Direction getDirection(int move) {
+      return directions[move];
+    }
+
+    // Return where the tile after a move was added, row * size + column
+    public int getSpawnCell(int move) {
+      return spawnCells[move];
+    }
+
+    // Return the value of the tile added after a move
+    public int getSpawnValue(int move) {
+      return spawnValues[move];
+    }
+
+    /**
+     * Plays the game back up to a move
+     * @param int moves - number of moves to play, at most getMoveCount()
+     * @param Random random - random generator of the returned board
+     * @return Board - the board after the moves and their added tiles
+     */
+    public Board boardAfter(int moves, Random random) throws IOException {
+      if (moves < 0 || moves > this.moveCount) {
+        throw new IndexOutOfBoundsException("Move " + moves + " of " +
+                                            this.moveCount);
+      }
+      Board board = new Board(this.gridSize, 0,
+                              new byte[this.gridSize * this.gridSize],
+                              random);
+      try {
+        for (int i = 0; i < this.startCount; i++) {
+          board.placeTile(this.startCells[i], this.startValues[i], null);
+        }
+        //the start tiles aren't a step that can be undone
+        board.setUndoDepth(Board.DEFAULT_UNDO_DEPTH);
+        for (int move = 0; move < moves; move++) {
+          if (!board.canMove(this.directions[move])) {
+            throw new IOException("Move " + move + " (" +
+                                  this.directions[move] +
+                                  ") is not possible");
+          }
+          board.move(this.directions[move]);
+          board.placeTile(this.spawnCells[move], this.spawnValues[move], null);
+        }
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Game adds a tile to a taken space", e);
+      }
+      return board;
+    }
+
+    /**
+     * Makes room for a game
+     */
+    private void reset(int gridSize, int starts, int moves) {
+      this.gridSize = gridSize;
+      this.startCount = starts;
+      this.moveCount = moves;
+      if (this.startCells.length < starts) {
+        this.startCells = new int[starts];
+        this.startValues = new int[starts];
+      }
+      if (this.directions.length < moves) {
+        int capacity = Math.max(moves, this.directions.length * 2);
+        this.directions = new Direction[capacity];
+        this.spawnCells = new int[capacity];
+        this.spawnValues = new int[capacity];
+      }
+    }
+  }
+
+  /**
+   * Name: Writer (class)
+   * Purpose: appends games of one board size to a new archive file and
+   *          writes the index when closed
+   */
+  public static class Writer implements Closeable {
+
+    private final FileChannel channel;
+    private final int gridSize;
+    private final int cellBits;
+    private final int gamesPerBlock;
+    private final CRC32 crc = new CRC32();
+
+    //the block being filled
+    private byte[] block = new byte[1 << 16];
+    private int blockLength;
+    private int blockGames;
+    private long blockOffset = HEADER_BYTES;
+
+    //length and CRC32 of every written block
+    private int[] blockBytes = new int[16];
+    private int[] blockCrcs = new int[16];
+    private int blockCount;
+    private long gameCount;
+
+    //the game being added: where it starts in the block, its counts and
+    //the bits not yet written
+    private int gameStart = -1;
+    private int startCount;
+    private int moveCount;
+    private long bits;
+    private int bitCount;
+
+    /**
+     * Creates an archive file, replacing an existing one
+     * @param String archiveFile: name of the archive file
+     * @param int gridSize: size of the boards of all games
+     */
+    public Writer(String archiveFile, int gridSize) throws IOException {
+      this(archiveFile, gridSize, DEFAULT_GAMES_PER_BLOCK);
+    }
+
+    /**
+     * Creates an archive file, replacing an existing one
+     * @param String archiveFile: name of the archive file
+     * @param int gridSize: size of the boards of all games
+     * @param int gamesPerBlock: number of games between two index entries
+     */
+    public Writer(String archiveFile, int gridSize, int gamesPerBlock)
+      throws IOException {
+      if (gamesPerBlock < 1) {
+        throw new IllegalArgumentException("A block needs at least 1 game");
+      }
+      this.gridSize = gridSize;
+      this.cellBits = cellBits(gridSize);
+      this.gamesPerBlock = gamesPerBlock;
+      this.channel = FileChannel.open(Paths.get(archiveFile),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+      //the header is filled in by close()
+      this.channel.position(HEADER_BYTES);
+    }
+
+    /**
+     * Starts a game, its tiles are recorded as the start tiles
+     * @param Board board - the board before the first move, holding only
+     *                      2s and 4s
+     */
+    public void startGame(Board board) {
+      if (board.GRID_SIZE != this.gridSize) {
+        throw new IllegalArgumentException("Board size " + board.GRID_SIZE +
+                                           " doesn't match the archive");
+      }
+      if (this.gameStart >= 0) {
+        throw new IllegalStateException("The last game wasn't ended");
+      }
+      //checks the tiles before anything is written, so a bad board
+      //leaves the writer as it was
+      int[][] grid = board.getGrid();
+      int tiles = 0;
+      for (int[] gridRow : grid) {
+        for (int tile : gridRow) {
+          if (tile != 0 && ((tile != 2 && tile != 4) || ++tiles > 255)) {
+            throw new IllegalArgumentException("A game must start with " +
+                                               "at most 255 2s and 4s");
+          }
+        }
+      }
+
+      this.gameStart = this.blockLength;
+      this.reserve(GAME_HEADER_BYTES);
+      this.blockLength += GAME_HEADER_BYTES;
+      this.startCount = 0;
+      this.moveCount = 0;
+
+      for (int row = 0, cell = 0; row < this.gridSize; row++) {
+        for (int column = 0; column < this.gridSize; column++, cell++) {
+          int tile = grid[row][column];
+          if (tile == 0) {
+            continue;
+          }
+          this.putBits(cell, this.cellBits);
+          this.putBits((tile == 2) ? 0 : 1, 1);
+          this.startCount++;
+        }
+      }
+    }
+
+    /**
+     * Adds a move to the game
+     * @param Direction direction - direction of the move
+     * @param int spawnCell - where the tile after the move was added,
+     *                        row * size + column
+     * @param int spawnValue - value of the added tile, 2 or 4
+     */
+    public void addMove(Direction direction, int spawnCell, int spawnValue) {
+      if (this.gameStart < 0) {
+        throw new IllegalStateException("No game was started");
+      }
+      if (spawnCell < 0 || spawnCell >= this.gridSize * this.gridSize ||
+          (spawnValue != 2 && spawnValue != 4)) {
+        throw new IllegalArgumentException("Invalid added tile " +
+                                           spawnValue + " at " + spawnCell);
+      }
+      this.putBits(direction.ordinal(), 2);
+      this.putBits(spawnCell, this.cellBits);
+      this.putBits((spawnValue == 2) ? 0 : 1, 1);
+      this.moveCount++;
+    }
+
+    /**
+     * Adds a move to the game
+     * @param MoveResult result - the move and the tile added after it
+     */
+    public void addMove(MoveResult result) {
+      this.addMove(result.getDirection(), result.getSpawnCell(),
+                   result.getSpawnValue());
+    }
+
+    /**
+     * Ends the game and writes its block when the block is full
+     */
+    public void endGame() throws IOException {
+      if (this.gameStart < 0) {
+        throw new IllegalStateException("No game was started");
+      }
+      if (this.bitCount > 0) {
+        this.reserve(1);
+        this.block[this.blockLength++] = (byte) this.bits;
+        this.bits = 0;
+        this.bitCount = 0;
+      }
+      ByteBuffer.wrap(this.block, this.gameStart, GAME_HEADER_BYTES)
+        .putInt(this.moveCount).put((byte) this.startCount);
+      this.gameStart = -1;
+      this.gameCount++;
+      this.blockGames++;
+      if (this.blockGames == this.gamesPerBlock) {
+        this.writeBlock();
+      }
+    }
+
+    /**
+     * Adds a recorded game, playing it back to find its added tiles
+     * @param GameRecording recording - a game of the archive's grid size
+     */
+    public void add(GameRecording recording) throws IOException {
+      Board board = recording.newBoard();
+      board.setUndoDepth(1);
+      MoveResult result = new MoveResult(this.gridSize);
+      this.startGame(board);
+      for (int move = 0; move < recording.getMoveCount(); move++) {
+        if (!board.move(recording.getMove(move), result)) {
+          throw new IllegalArgumentException("Recorded move " + move +
+                                             " is not possible");
+        }
+        board.addRandomTile(result);
+        this.addMove(result);
+      }
+      this.endGame();
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        if (this.gameStart >= 0) {
+          this.endGame();
+        }
+        if (this.blockGames > 0) {
+          this.writeBlock();
+        }
+
+        //the index, with the offsets added up again
+        ByteBuffer index = ByteBuffer.allocate(this.blockCount *
+                                               INDEX_ENTRY_BYTES);
+        long offset = HEADER_BYTES;
+        for (int i = 0; i < this.blockCount; i++) {
+          index.putLong(offset).putInt(this.blockBytes[i])
+            .putInt(this.blockCrcs[i]);
+          offset += this.blockBytes[i];
+        }
+        index.flip();
+        this.write(index);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION)
+          .putInt(this.gridSize).putInt(this.gamesPerBlock)
+          .putLong(this.gameCount).putLong(this.blockOffset).flip();
+        this.channel.position(0);
+        this.write(header);
+      } finally {
+        this.channel.close();
+      }
+    }
+
+    /**
+     * Appends bits to the game, least significant bit first
+     */
+    private void putBits(int value, int count) {
+      this.bits |= (long) value << this.bitCount;
+      this.bitCount += count;
+      while (this.bitCount >= 8) {
+        this.reserve(1);
+        this.block[this.blockLength++] = (byte) this.bits;
+        this.bits >>>= 8;
+        this.bitCount -= 8;
+      }
+    }
+
+    /**
+     * Grows the block so that more bytes fit
+     */
+    private void reserve(int bytes) {
+      if (this.blockLength + bytes > this.block.length) {
+        this.block = Arrays.copyOf(this.block, Math.max(this.block.length * 2,
+          this.blockLength + bytes));
+      }
+    }
+
+    /**
+     * Writes the full block to the file and keeps its index entry
+     */
+    private void writeBlock() throws IOException {
+      this.crc.reset();
+      this.crc.update(this.block, 0, this.blockLength);
+      if (this.blockCount == this.blockBytes.length) {
+        this.blockBytes = Arrays.copyOf(this.blockBytes, this.blockCount * 2);
+        this.blockCrcs = Arrays.copyOf(this.blockCrcs, this.blockCount * 2);
+      }
+      this.blockBytes[this.blockCount] = this.blockLength;
+      this.blockCrcs[this.blockCount] = (int) this.crc.getValue();
+      this.blockCount++;
+
+      this.write(ByteBuffer.wrap(this.block, 0, this.blockLength));
+      this.blockOffset += this.blockLength;
+      this.blockLength = 0;
+      this.blockGames = 0;
+    }
+
+    /**
+     * Writes a buffer at the position of the channel
+     */
+    private void write(ByteBuffer buffer) throws IOException {
+      while (buffer.hasRemaining()) {
+        this.channel.write(buffer);
+      }
+    }
+  }
+}
@@ -0,0 +1,50 @@
+//package G2048;
+//------------------------------------------------------------------//
+// MovePolicy.java                                                  //
+//                                                                  //
+// Interface for anything that picks the next move of a game,       //
+// used by the headless Simulator instead of the keyboard           //
+//                                                                  //
+//------------------------------------------------------------------//
+
+import java.util.*;
+
+public interface MovePolicy {
+
+    // Picks one of the possible moves, each with the same probability
+    MovePolicy RANDOM = (board, random) -> {
+        int legal = board.legalMoves();
+        if (legal == 0) {
+            return null;
+        }
+        // drops the lower bits until the picked one is the lowest
+        for (int skip = random.nextInt(Integer.bitCount(legal)); skip > 0;
+             skip--) {
+            legal &= legal - 1;
+        }
+        return Direction.values()[Integer.numberOfTrailingZeros(legal)];
+    };
+
+    // Prefers down, then left, then right, then up (keeps big tiles in
+    // the lower left corner)
+    MovePolicy CORNER = (board, random) -> {
+        if (board.canMove(Direction.DOWN)) {
+            return Direction.DOWN;
+        }
+        if (board.canMove(Direction.LEFT)) {
+            return Direction.LEFT;
+        }
+        if (board.canMove(Direction.RIGHT)) {
+            return Direction.RIGHT;
+        }
+        if (board.canMove(Direction.UP)) {
+            return Direction.UP;
+        }
+        return null;
+    };
+
+    // Returns the move to make, or null if no move is possible. The
+    // random generator belongs to the game and may be used freely.
+    Direction chooseMove(Board board, Random random);
+
+}
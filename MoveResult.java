@@ -0,0 +1,140 @@
+//package G2048;
+
+//------------------------------------------------------------------//
+//  Name: Bilguun Bulgan
+//  File: MoveResult.java
+//
+//  This file describes what a single move did to a Board: which tiles
+//  slid from where to where, which tiles were merged, how much the
+//  score went up and where the random tile after the move was added.
+//  A result is created once for a board size and filled again by every
+//  Board.move(Direction, MoveResult), so recording a move allocates
+//  nothing. Animations and other consumers can then work on the changes
+//  instead of comparing whole grids.
+//------------------------------------------------------------------//
+
+/**
+ * Class name: MoveResult
+ * Purpose: Reusable record of the slides, merges, score and added tile
+ * of one move.
+ */
+public final class MoveResult {
+
+  private final int gridSize;
+
+  //slide i moved the tile at slideFrom[i] to slideTo[i]; tiles that
+  //stay where they are aren't listed
+  private final int[] slideFrom;
+  private final int[] slideTo;
+  private int slideCount;
+
+  //merge i created the tile mergeValue[i] at mergeCell[i]
+  private final int[] mergeCell;
+  private final int[] mergeValue;
+  private int mergeCount;
+
+  private Direction direction;
+  private long scoreDelta;
+  private int spawnCell;
+  private int spawnValue;
+
+  /**
+   * Constructs an empty result for boards of one size
+   * @param int gridSize: the size of the boards
+   */
+  public MoveResult(int gridSize) {
+    int tiles = gridSize * gridSize;
+    this.gridSize = gridSize;
+    this.slideFrom = new int[tiles];
+    this.slideTo = new int[tiles];
+    this.mergeCell = new int[tiles / 2];
+    this.mergeValue = new int[tiles / 2];
+    this.clear(null);
+  }
+
+  // Return the size of the boards this result is for
+  public int getGridSize() {
+    return gridSize;
+  }
+
+  // Return the direction of the move, null if no move was made
+  public Direction getDirection() {
+    return direction;
+  }
+
+  // Return the number of tiles that slid
+  public int getSlideCount() {
+    return slideCount;
+  }
+
+  // Return where a sliding tile came from, row * size + column
+  public int getSlideFrom(int slide) {
+    return slideFrom[slide];
+  }
+
+  // Return where a sliding tile ended up, row * size + column
+  public int getSlideTo(int slide) {
+    return slideTo[slide];
+  }
+
+  // Return the number of merges
+  public int getMergeCount() {
+    return mergeCount;
+  }
+
+  // Return the tile created by a merge, row * size + column
+  public int getMergeCell(int merge) {
+    return mergeCell[merge];
+  }
+
+  // Return the value of the tile created by a merge
+  public int getMergeValue(int merge) {
+    return mergeValue[merge];
+  }
+
+  // Return how much the move added to the score
+  public long getScoreDelta() {
+    return scoreDelta;
+  }
+
+  // Return where the random tile was added, -1 if none was added
+  public int getSpawnCell() {
+    return spawnCell;
+  }
+
+  // Return the value of the added random tile, 0 if none was added
+  public int getSpawnValue() {
+    return spawnValue;
+  }
+
+  /**
+   * Empties the result before a move
+   * @param Direction direction - the direction of the move, or null
+   */
+  void clear(Direction direction) {
+    this.direction = direction;
+    this.slideCount = 0;
+    this.mergeCount = 0;
+    this.scoreDelta = 0;
+    this.spawnCell = -1;
+    this.spawnValue = 0;
+  }
+
+  void addSlide(int from, int to) {
+    this.slideFrom[this.slideCount] = from;
+    this.slideTo[this.slideCount] = to;
+    this.slideCount++;
+  }
+
+  void addMerge(int cell, int exponent) {
+    this.mergeCell[this.mergeCount] = cell;
+    this.mergeValue[this.mergeCount] = 1 << exponent;
+    this.mergeCount++;
+    this.scoreDelta += 1L << exponent;
+  }
+
+  void setSpawn(int cell, int value) {
+    this.spawnCell = cell;
+    this.spawnValue = value;
+  }
+}
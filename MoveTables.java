@@ -0,0 +1,239 @@
+//package G2048;
+
+//------------------------------------------------------------------//
+//  Name: Bilguun Bulgan
+//  File: MoveTables.java
+//
+//  This file contains the precomputed row and column transitions used
+//  by BitBoard. A 4x4 row or column is 4 nibbles, i.e. 16 bits, so
+//  every possible line (65536 of them) is moved once when the class is
+//  loaded. A move of a whole board then is only 4 table lookups, and
+//  a line can move exactly when its table entry differs from itself.
+//------------------------------------------------------------------//
+
+/**
+ * Class name: MoveTables
+ * Purpose: Holds the lookup tables for moving encoded rows and columns
+ * of a BitBoard, and the table driven move methods.
+ */
+final class MoveTables {
+
+  private static final int LINES = 1 << 16;
+
+  //results of moving a row to the left and to the right
+  private static final char[] ROW_LEFT = new char[LINES];
+  private static final char[] ROW_RIGHT = new char[LINES];
+
+  //score gained by moving a row to the left and to the right
+  private static final int[] SCORE_LEFT = new int[LINES];
+  private static final int[] SCORE_RIGHT = new int[LINES];
+
+  //results of moving a column (given as a row of the transposed board)
+  //up and down, already spread out to nibbles 0, 4, 8 and 12
+  private static final long[] COLUMN_UP = new long[LINES];
+  private static final long[] COLUMN_DOWN = new long[LINES];
+
+  static {
+    //filling up all the tables
+    for (int line = 0; line < LINES; line++) {
+      int reversed = BitBoard.reverseRow(line);
+
+      int left = slideLeft(line);
+      int right = BitBoard.reverseRow(slideLeft(reversed));
+      ROW_LEFT[line] = (char) left;
+      ROW_RIGHT[line] = (char) right;
+      SCORE_LEFT[line] = scoreLeft(line);
+      SCORE_RIGHT[line] = scoreLeft(reversed);
+      COLUMN_UP[line] = spreadColumn(left);
+      COLUMN_DOWN[line] = spreadColumn(right);
+    }
+  }
+
+  private MoveTables() {
+  }
+
+  /**
+   * Moves an encoded board into a direction
+   * @param long board - the encoded board
+   * @param Direction direction - direction to which the move must be made
+   * @return long - the board after the move, equal to board if the move
+   *                isn't possible
+   */
+  static long move(long board, Direction direction) {
+    switch(direction) {
+    case LEFT: return moveLeft(board);
+    case RIGHT: return moveRight(board);
+    case UP: return moveUp(board);
+    case DOWN: return moveDown(board);
+    default: return board;
+    }
+  }
+
+  /**
+   * Returns the score gained by moving an encoded board into a direction
+   * @param long board - the encoded board
+   * @param Direction direction - direction of the move
+   * @return int - the score increment
+   */
+  static int score(long board, Direction direction) {
+    switch(direction) {
+    case LEFT: return scoreRows(board, SCORE_LEFT);
+    case RIGHT: return scoreRows(board, SCORE_RIGHT);
+    case UP: return scoreRows(BitBoard.transpose(board), SCORE_LEFT);
+    case DOWN: return scoreRows(BitBoard.transpose(board), SCORE_RIGHT);
+    default: return 0;
+    }
+  }
+
+  /**
+   * Checks if a move to a specific direction is possible
+   * @param long board - the encoded board
+   * @param Direction direction - the direction to be checked
+   * @return boolean - true if the move is possible, false if not
+   */
+  static boolean canMove(long board, Direction direction) {
+    switch(direction) {
+    case LEFT: return rowsChange(board, ROW_LEFT);
+    case RIGHT: return rowsChange(board, ROW_RIGHT);
+    case UP: return rowsChange(BitBoard.transpose(board), ROW_LEFT);
+    case DOWN: return rowsChange(BitBoard.transpose(board), ROW_RIGHT);
+    default: return false;
+    }
+  }
+
+  /**
+   * Checks if there are no more possible moves, i.e if the game is over
+   * @param long board - the encoded board
+   * @return boolean - true if there are no possible moves, false if there are
+   */
+  static boolean isGameOver(long board) {
+    long transposed = BitBoard.transpose(board);
+    return !(rowsChange(board, ROW_LEFT) || rowsChange(board, ROW_RIGHT) ||
+             rowsChange(transposed, ROW_LEFT) ||
+             rowsChange(transposed, ROW_RIGHT));
+  }
+
+  static long moveLeft(long board) {
+    return ((long) ROW_LEFT[(int) (board & 0xFFFF)]) |
+      ((long) ROW_LEFT[(int) ((board >>> 16) & 0xFFFF)] << 16) |
+      ((long) ROW_LEFT[(int) ((board >>> 32) & 0xFFFF)] << 32) |
+      ((long) ROW_LEFT[(int) (board >>> 48)] << 48);
+  }
+
+  static long moveRight(long board) {
+    return ((long) ROW_RIGHT[(int) (board & 0xFFFF)]) |
+      ((long) ROW_RIGHT[(int) ((board >>> 16) & 0xFFFF)] << 16) |
+      ((long) ROW_RIGHT[(int) ((board >>> 32) & 0xFFFF)] << 32) |
+      ((long) ROW_RIGHT[(int) (board >>> 48)] << 48);
+  }
+
+  static long moveUp(long board) {
+    long transposed = BitBoard.transpose(board);
+    return COLUMN_UP[(int) (transposed & 0xFFFF)] |
+      (COLUMN_UP[(int) ((transposed >>> 16) & 0xFFFF)] << 4) |
+      (COLUMN_UP[(int) ((transposed >>> 32) & 0xFFFF)] << 8) |
+      (COLUMN_UP[(int) (transposed >>> 48)] << 12);
+  }
+
+  static long moveDown(long board) {
+    long transposed = BitBoard.transpose(board);
+    return COLUMN_DOWN[(int) (transposed & 0xFFFF)] |
+      (COLUMN_DOWN[(int) ((transposed >>> 16) & 0xFFFF)] << 4) |
+      (COLUMN_DOWN[(int) ((transposed >>> 32) & 0xFFFF)] << 8) |
+      (COLUMN_DOWN[(int) (transposed >>> 48)] << 12);
+  }
+
+  /**
+   * Sums up the table entries of every row of an encoded board
+   */
+  private static int scoreRows(long board, int[] table) {
+    return table[(int) (board & 0xFFFF)] +
+      table[(int) ((board >>> 16) & 0xFFFF)] +
+      table[(int) ((board >>> 32) & 0xFFFF)] +
+      table[(int) (board >>> 48)];
+  }
+
+  /**
+   * Checks if any row of an encoded board differs from its table entry
+   */
+  private static boolean rowsChange(long board, char[] table) {
+    for (int shift = 0; shift < 64; shift += 16) {
+      int line = (int) ((board >>> shift) & 0xFFFF);
+      if (table[line] != line) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Slides and merges one encoded row to the left
+   * @param int line - the 16 bit row
+   * @return int - the row after the move
+   */
+  private static int slideLeft(int line) {
+    int result = 0;
+    int target = 0;
+    int pending = 0;
+
+    for (int column = 0; column < 4; column++) {
+      int exponent = (line >>> (4 * column)) & 0xF;
+      if (exponent == 0) {
+        continue;
+      }
+      //merges with the previous tile if they are of the same value
+      if (pending == exponent && exponent < BitBoard.MAX_EXPONENT) {
+        result |= (exponent + 1) << (4 * target);
+        target++;
+        pending = 0;
+      }
+      else {
+        if (pending != 0) {
+          result |= pending << (4 * target);
+          target++;
+        }
+        pending = exponent;
+      }
+    }
+    if (pending != 0) {
+      result |= pending << (4 * target);
+    }
+    return result;
+  }
+
+  /**
+   * Computes the score gained by sliding one encoded row to the left
+   * @param int line - the 16 bit row
+   * @return int - the score increment
+   */
+  private static int scoreLeft(int line) {
+    int score = 0;
+    int pending = 0;
+
+    for (int column = 0; column < 4; column++) {
+      int exponent = (line >>> (4 * column)) & 0xF;
+      if (exponent == 0) {
+        continue;
+      }
+      if (pending == exponent && exponent < BitBoard.MAX_EXPONENT) {
+        score += 1 << (exponent + 1);
+        pending = 0;
+      }
+      else {
+        pending = exponent;
+      }
+    }
+    return score;
+  }
+
+  /**
+   * Spreads the 4 nibbles of a row out to nibbles 0, 4, 8 and 12 of a
+   * long, i.e. turns it into column 0 of a board
+   */
+  private static long spreadColumn(int line) {
+    return ((long) (line & 0xF)) |
+      ((long) ((line >>> 4) & 0xF) << 16) |
+      ((long) ((line >>> 8) & 0xF) << 32) |
+      ((long) ((line >>> 12) & 0xF) << 48);
+  }
+}
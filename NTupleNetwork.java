@@ -0,0 +1,277 @@
+//package G2048;
+
+//------------------------------------------------------------------//
+//  Name: Bilguun Bulgan
+//  File: NTupleNetwork.java
+//
+//  This file is an n-tuple network that evaluates 4x4 boards. A tuple
+//  is a list of tiles, the exponents on those tiles form an index into
+//  a table of weights, and the value of a board is the sum of the
+//  looked up weights of all tuples on all 8 symmetries of the board.
+//  All weights live in one flat float array, so evaluating and
+//  updating a board only reads and writes that array and never
+//  allocates anything. Networks can be saved to and loaded from a
+//  compact binary checkpoint file.
+//------------------------------------------------------------------//
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Class name: NTupleNetwork
+ * Purpose: Holds the weights of an n-tuple network and evaluates,
+ * updates, saves and loads them. Several threads may evaluate and
+ * update the same network; updates aren't synchronized, so a rare
+ * concurrent update of the same weight may be lost (which doesn't
+ * hurt the learning).
+ */
+public class NTupleNetwork implements MovePolicy {
+
+  //first bytes of a checkpoint file, and its format version
+  private static final int MAGIC = 0x4E545550; // "NTUP"
+  private static final int VERSION = 1;
+
+  //number of weights written to the file channel at once
+  private static final int FLOATS_PER_CHUNK = 1 << 16;
+
+  //four 6-tuples: two straight and two bent ones
+  private static final int[][] STANDARD_TUPLES = {
+    {0, 1, 2, 3, 4, 5}, {4, 5, 6, 7, 8, 9},
+    {0, 1, 2, 4, 5, 6}, {4, 5, 6, 8, 9, 10}
+  };
+
+  //two straight 4-tuples and a 2x2 square, quick to train
+  private static final int[][] SMALL_TUPLES = {
+    {0, 1, 2, 3}, {4, 5, 6, 7}, {0, 1, 4, 5}
+  };
+
+  private final int[][] tuples;
+  private final int[] offsets;
+  private final float[] weights;
+
+  /**
+   * Constructs a network with all weights 0
+   * @param int[][] tuples: the tiles (0..15, row * 4 + column) of every
+   *                        tuple
+   */
+  public NTupleNetwork(int[][] tuples) {
+    this.tuples = new int[tuples.length][];
+    this.offsets = new int[tuples.length];
+    long size = 0;
+    for (int i = 0; i < tuples.length; i++) {
+      for (int cell : tuples[i]) {
+        if (cell < 0 || cell > 15) {
+          throw new IllegalArgumentException("Tuple tile " + cell +
+                                             " isn't in 0..15");
+        }
+      }
+      this.tuples[i] = tuples[i].clone();
+      this.offsets[i] = (int) size;
+      size += 1L << (4 * tuples[i].length);
+    }
+    if (size > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException("Tuples need too many weights");
+    }
+    this.weights = new float[(int) size];
+  }
+
+  /**
+   * Constructs a network of four 6-tuples (about 256 MB of weights)
+   * @return NTupleNetwork - the new network
+   */
+  public static NTupleNetwork standard() {
+    return new NTupleNetwork(STANDARD_TUPLES);
+  }
+
+  /**
+   * Constructs a network of three 4-tuples (less than 1 MB of weights)
+   * @return NTupleNetwork - the new network
+   */
+  public static NTupleNetwork small() {
+    return new NTupleNetwork(SMALL_TUPLES);
+  }
+
+  /**
+   * Evaluates an encoded board
+   * @param long board - the encoded board
+   * @return float - the sum of the weights of all tuples on all
+   *                 symmetries of the board
+   */
+  public float value(long board) {
+    float[] table = this.weights;
+    float sum = 0.0f;
+    for (int symmetry = 0; symmetry < 8; symmetry++) {
+      long transformed = BitBoard.transform(board, symmetry);
+      for (int i = 0; i < this.tuples.length; i++) {
+        sum += table[this.offsets[i] + index(transformed, this.tuples[i])];
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Adds a value to the weights of all tuples on all symmetries
+   * of a board
+   * @param long board - the encoded board
+   * @param float delta - the value added to every weight
+   */
+  public void update(long board, float delta) {
+    float[] table = this.weights;
+    for (int symmetry = 0; symmetry < 8; symmetry++) {
+      long transformed = BitBoard.transform(board, symmetry);
+      for (int i = 0; i < this.tuples.length; i++) {
+        table[this.offsets[i] + index(transformed, this.tuples[i])] += delta;
+      }
+    }
+  }
+
+  /**
+   * Builds the weight index of a tuple from the exponents on its tiles
+   */
+  private static int index(long board, int[] tuple) {
+    int index = 0;
+    for (int cell : tuple) {
+      index = (index << 4) | (int) ((board >>> (4 * cell)) & 0xFL);
+    }
+    return index;
+  }
+
+  /**
+   * Picks the move with the highest score plus value of the board
+   * after the move
+   * @param long board - the encoded board
+   * @return Direction - the best move, or null if no move is possible
+   */
+  public Direction bestMove(long board) {
+    Direction best = null;
+    float bestValue = Float.NEGATIVE_INFINITY;
+    for (Direction direction : ExpectimaxSolver.DIRECTIONS) {
+      long moved = MoveTables.move(board, direction);
+      if (moved == board) {
+        continue;
+      }
+      float value = MoveTables.score(board, direction) + this.value(moved);
+      if (value > bestValue) {
+        bestValue = value;
+        best = direction;
+      }
+    }
+    return best;
+  }
+
+  @Override
+  public Direction chooseMove(Board board, Random random) {
+    return bestMove(BitBoard.encode(board.getGrid()));
+  }
+
+  // Return the number of features (tuples times symmetries) of a board
+  public int getFeatureCount() {
+    return 8 * tuples.length;
+  }
+
+  // Return the total number of weights
+  public int getWeightCount() {
+    return weights.length;
+  }
+
+  /**
+   * Saves the network into a binary checkpoint file: magic number,
+   * version, the tuples and then all weights as floats
+   * @param String outputFile: name of the file where to save the network
+   */
+  public void save(String outputFile) throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(outputFile),
+           StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+           StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer header = ByteBuffer.allocate(16 + 4 * 16 * tuples.length);
+      header.putInt(MAGIC).putInt(VERSION).putInt(tuples.length);
+      for (int[] tuple : tuples) {
+        header.put((byte) tuple.length);
+        for (int cell : tuple) {
+          header.put((byte) cell);
+        }
+      }
+      header.flip();
+      writeFully(channel, header);
+
+      ByteBuffer chunk = ByteBuffer.allocateDirect(4 * FLOATS_PER_CHUNK);
+      for (int start = 0; start < weights.length; start += FLOATS_PER_CHUNK) {
+        int count = Math.min(FLOATS_PER_CHUNK, weights.length - start);
+        chunk.clear();
+        chunk.asFloatBuffer().put(weights, start, count);
+        chunk.limit(4 * count);
+        writeFully(channel, chunk);
+      }
+    }
+  }
+
+  /**
+   * Loads a network from a binary checkpoint file written by save()
+   * @param String inputFile: name of the checkpoint file
+   * @return NTupleNetwork - the loaded network
+   */
+  public static NTupleNetwork load(String inputFile) throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(inputFile),
+                                                StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(12);
+      readFully(channel, header);
+      if (header.getInt() != MAGIC) {
+        throw new IOException(inputFile + " isn't an n-tuple checkpoint");
+      }
+      int version = header.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported checkpoint version " + version);
+      }
+      int[][] tuples = new int[header.getInt()][];
+      ByteBuffer cells = ByteBuffer.allocate(1);
+      for (int i = 0; i < tuples.length; i++) {
+        cells.clear();
+        readFully(channel, cells);
+        tuples[i] = new int[cells.get()];
+        ByteBuffer tuple = ByteBuffer.allocate(tuples[i].length);
+        readFully(channel, tuple);
+        for (int j = 0; j < tuples[i].length; j++) {
+          tuples[i][j] = tuple.get();
+        }
+      }
+
+      NTupleNetwork network = new NTupleNetwork(tuples);
+      float[] weights = network.weights;
+      ByteBuffer chunk = ByteBuffer.allocateDirect(4 * FLOATS_PER_CHUNK);
+      for (int start = 0; start < weights.length; start += FLOATS_PER_CHUNK) {
+        int count = Math.min(FLOATS_PER_CHUNK, weights.length - start);
+        chunk.clear();
+        chunk.limit(4 * count);
+        readFully(channel, chunk);
+        chunk.asFloatBuffer().get(weights, start, count);
+      }
+      return network;
+    }
+  }
+
+  /**
+   * Writes all remaining bytes of a buffer
+   */
+  private static void writeFully(FileChannel channel, ByteBuffer buffer)
+    throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * Reads until a buffer is full, flips it for reading
+   */
+  private static void readFully(FileChannel channel, ByteBuffer buffer)
+    throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new EOFException("Checkpoint file is cut off");
+      }
+    }
+    buffer.flip();
+  }
+}
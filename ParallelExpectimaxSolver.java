@@ -0,0 +1,336 @@
+//package G2048;
+
+//------------------------------------------------------------------//
+//  Name: Bilguun Bulgan
+//  File: ParallelExpectimaxSolver.java
+//
+//  This file runs the expectimax search of ExpectimaxSolver on several
+//  cores with a work stealing ForkJoinPool. The root is split into one
+//  task per Direction and the chance nodes near the root are split into
+//  one task per empty tile, so idle workers steal whole subtrees. Deep
+//  in the tree the search runs sequentially inside the task, all
+//  workers share one TranspositionTable.
+//------------------------------------------------------------------//
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Class name: ParallelExpectimaxSolver
+ * Purpose: Finds the best Direction for a 4x4 board using all worker
+ * threads of its pool. Calls to bestMove are serialized, the pool is
+ * kept until shutdown() is called.
+ */
+public class ParallelExpectimaxSolver implements MovePolicy {
+
+  //chance nodes with at least this many remaining moves are split into
+  //one task per empty tile, smaller subtrees run sequentially
+  private static final int SPLIT_DEPTH = 2;
+
+  private final int maxDepth;
+  private final long timeBudgetNanos;
+  private final TranspositionTable table;
+  private final ForkJoinPool pool;
+
+  private final LongAdder nodes = new LongAdder();
+  private volatile long deadline;
+  private volatile boolean outOfTime;
+  private volatile boolean reachedDepthLimit;
+  private int completedDepth;
+
+  /**
+   * Constructs a solver
+   * @param int maxDepth: number of player moves to look ahead at most
+   * @param long timeBudgetMillis: time per move, 0 for no limit
+   * @param long tableBytes: memory of the shared table in bytes
+   * @param int threads: number of worker threads
+   */
+  public ParallelExpectimaxSolver(int maxDepth, long timeBudgetMillis,
+                                  long tableBytes, int threads) {
+    this.maxDepth = maxDepth;
+    this.timeBudgetNanos = timeBudgetMillis * 1000000L;
+    this.table = new TranspositionTable(tableBytes);
+    this.pool = new ForkJoinPool(threads);
+  }
+
+  /**
+   * Finds the best move for a board
+   * @param Board board - a 4x4 board, isn't changed
+   * @return Direction - the best move, or null if no move is possible
+   */
+  public Direction bestMove(Board board) {
+    return bestMove(BitBoard.encode(board.getGrid()));
+  }
+
+  @Override
+  public Direction chooseMove(Board board, Random random) {
+    return bestMove(board);
+  }
+
+  /**
+   * Finds the best move for an encoded board. Searches one move deeper
+   * each round and keeps the answer of the deepest round that finished
+   * in time.
+   * @param long board - the encoded board
+   * @return Direction - the best move, or null if no move is possible
+   */
+  public synchronized Direction bestMove(long board) {
+    this.deadline = System.nanoTime() + this.timeBudgetNanos;
+    this.outOfTime = false;
+    this.completedDepth = 0;
+    this.table.newSearch();
+
+    Direction best = null;
+    for (int depth = 1; depth <= this.maxDepth; depth++) {
+      this.reachedDepthLimit = false;
+      RootTask root = new RootTask(board, depth);
+      this.pool.invoke(root);
+      if (this.outOfTime) {
+        break;
+      }
+      best = root.best;
+      this.completedDepth = depth;
+      //stops when every branch was cut off by its probability, a deeper
+      //round would search the same tree again
+      if (best == null || !this.reachedDepthLimit) {
+        break;
+      }
+    }
+    //always answers with some possible move, even when not a single
+    //round could finish
+    if (best == null && !MoveTables.isGameOver(board)) {
+      for (Direction direction : ExpectimaxSolver.DIRECTIONS) {
+        if (MoveTables.canMove(board, direction)) {
+          return direction;
+        }
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Stops the worker threads
+   */
+  public void shutdown() {
+    this.pool.shutdown();
+  }
+
+  // Return the number of nodes searched so far
+  public long getNodeCount() {
+    return nodes.sum();
+  }
+
+  // Return the depth of the last search that finished in time
+  public int getCompletedDepth() {
+    return completedDepth;
+  }
+
+  // Return the transposition table shared by the workers
+  public TranspositionTable getTable() {
+    return table;
+  }
+
+  // Return the number of worker threads
+  public int getThreads() {
+    return pool.getParallelism();
+  }
+
+  /**
+   * Name: RootTask (class)
+   * Purpose: searches every move of the root position in parallel
+   */
+  @SuppressWarnings("serial") //tasks are never serialized
+  private final class RootTask extends RecursiveAction {
+    private final long board;
+    private final int depth;
+    private Direction best;
+
+    private RootTask(long board, int depth) {
+      this.board = board;
+      this.depth = depth;
+    }
+
+    @Override
+    protected void compute() {
+      List<ChanceTask> tasks = new ArrayList<ChanceTask>(4);
+      List<Direction> directions = new ArrayList<Direction>(4);
+      for (Direction direction : ExpectimaxSolver.DIRECTIONS) {
+        long moved = MoveTables.move(this.board, direction);
+        if (moved != this.board) {
+          tasks.add(new ChanceTask(moved, this.depth - 1, 1.0f));
+          directions.add(direction);
+        }
+      }
+      invokeAll(tasks);
+
+      float bestValue = -1.0f;
+      for (int i = 0; i < tasks.size(); i++) {
+        if (tasks.get(i).value > bestValue) {
+          bestValue = tasks.get(i).value;
+          this.best = directions.get(i);
+        }
+      }
+    }
+  }
+
+  /**
+   * Name: ChanceTask (class)
+   * Purpose: computes the expected value over all random tiles, split
+   *          into one task per empty tile near the root
+   */
+  @SuppressWarnings("serial") //tasks are never serialized
+  private final class ChanceTask extends RecursiveAction {
+    private final long board;
+    private final int depth;
+    private final float probability;
+    private float value;
+
+    private ChanceTask(long board, int depth, float probability) {
+      this.board = board;
+      this.depth = depth;
+      this.probability = probability;
+    }
+
+    @Override
+    protected void compute() {
+      //every task checks the clock once, small tasks may never reach
+      //CLOCK_INTERVAL nodes
+      if (timeBudgetNanos > 0 && System.nanoTime() > deadline) {
+        outOfTime = true;
+      }
+      if (outOfTime) {
+        return;
+      }
+      if (this.depth < SPLIT_DEPTH ||
+          this.probability < ExpectimaxSolver.PROBABILITY_CUTOFF) {
+        TaskSearch search = new TaskSearch();
+        this.value = search.chanceNode(this.board, this.depth,
+                                       this.probability);
+        nodes.add(search.getNodeCount());
+        return;
+      }
+      float cached = table.get(this.board, this.depth);
+      if (!Float.isNaN(cached)) {
+        this.value = cached;
+        return;
+      }
+
+      int empty = BitBoard.emptyCount(this.board);
+      float cellProbability = this.probability / empty;
+      List<CellTask> tasks = new ArrayList<CellTask>(empty);
+      for (int shift = 0; shift < 64; shift += 4) {
+        if (((this.board >>> shift) & 0xFL) == 0) {
+          tasks.add(new CellTask(this.board, shift, this.depth,
+                                 cellProbability));
+        }
+      }
+      invokeAll(tasks);
+
+      float sum = 0.0f;
+      for (CellTask task : tasks) {
+        sum += task.value;
+      }
+      this.value = sum / empty;
+      nodes.increment();
+      if (!outOfTime) {
+        table.put(this.board, this.depth, this.value);
+      }
+    }
+  }
+
+  /**
+   * Name: CellTask (class)
+   * Purpose: computes the weighted value of a 2 and a 4 on one empty
+   *          tile, searching the player moves after them in parallel
+   */
+  @SuppressWarnings("serial") //tasks are never serialized
+  private final class CellTask extends RecursiveAction {
+    private final long board;
+    private final int shift;
+    private final int depth;
+    private final float probability;
+    private float value;
+
+    private CellTask(long board, int shift, int depth, float probability) {
+      this.board = board;
+      this.shift = shift;
+      this.depth = depth;
+      this.probability = probability;
+    }
+
+    @Override
+    protected void compute() {
+      float two = ExpectimaxSolver.TWO_PROBABILITY;
+      List<ChanceTask> tasks = new ArrayList<ChanceTask>(8);
+      int twoTasks = addMoves(tasks, this.board | (1L << this.shift),
+                              this.probability * two);
+      addMoves(tasks, this.board | (2L << this.shift),
+               this.probability * (1.0f - two));
+      invokeAll(tasks);
+
+      //best move after a 2, then best move after a 4
+      float bestTwo = 0.0f;
+      float bestFour = 0.0f;
+      for (int i = 0; i < tasks.size(); i++) {
+        if (i < twoTasks) {
+          bestTwo = Math.max(bestTwo, tasks.get(i).value);
+        }
+        else {
+          bestFour = Math.max(bestFour, tasks.get(i).value);
+        }
+      }
+      nodes.add(2);
+      this.value = bestTwo * two + bestFour * (1.0f - two);
+    }
+
+    /**
+     * Adds one task per possible move of a board
+     * @return int - the number of tasks added
+     */
+    private int addMoves(List<ChanceTask> tasks, long spawned,
+                         float probability) {
+      int added = 0;
+      for (Direction direction : ExpectimaxSolver.DIRECTIONS) {
+        long moved = MoveTables.move(spawned, direction);
+        if (moved != spawned) {
+          tasks.add(new ChanceTask(moved, this.depth - 1, probability));
+          added++;
+        }
+      }
+      return added;
+    }
+  }
+
+  /**
+   * Name: TaskSearch (class)
+   * Purpose: runs the sequential nodes of ExpectimaxSolver inside a task,
+   *          with the stop flags shared by all tasks of the solver
+   */
+  private final class TaskSearch extends ExpectimaxSolver.Search {
+
+    private TaskSearch() {
+      super(ParallelExpectimaxSolver.this.table,
+            ParallelExpectimaxSolver.this.timeBudgetNanos,
+            ParallelExpectimaxSolver.this.deadline);
+    }
+
+    @Override
+    boolean outOfTime() {
+      return ParallelExpectimaxSolver.this.outOfTime;
+    }
+
+    @Override
+    void stop() {
+      ParallelExpectimaxSolver.this.outOfTime = true;
+    }
+
+    @Override
+    void reachDepthLimit() {
+      //reads first, so the workers don't keep writing the shared flag
+      if (!ParallelExpectimaxSolver.this.reachedDepthLimit) {
+        ParallelExpectimaxSolver.this.reachedDepthLimit = true;
+      }
+    }
+  }
+}
@@ -0,0 +1,136 @@
+//package G2048;
+
+//------------------------------------------------------------------//
+//  Name: Bilguun Bulgan
+//  File: ReplayEngine.java
+//
+//  This file plays recorded games back. Any board of a game can be
+//  rebuilt by running move() and addRandomTile() from the seed, but
+//  for long games that gets slow, so while the game is played through
+//  once a keyframe is kept every few moves: the tile exponents, the
+//  score and the state of the random generator. A board in the middle
+//  of the game is then rebuilt from the keyframe before it, with at
+//  most keyframeInterval - 1 moves played again.
+//------------------------------------------------------------------//
+
+/**
+ * Class name: ReplayEngine
+ * Purpose: Rebuilds the board after any move of a GameRecording, with
+ * keyframes for seeking.
+ */
+public class ReplayEngine {
+
+  public static final int DEFAULT_KEYFRAME_INTERVAL = 256;
+
+  private final GameRecording recording;
+  private final int keyframeInterval;
+  private final int tiles;
+
+  //keyframe k is the board after k * keyframeInterval moves
+  private final byte[][] keyframeExponents;
+  private final long[] keyframeScores;
+  private final long[] keyframeStates;
+  private int keyframeCount;
+
+  /**
+   * Plays a recording through once and keeps its keyframes
+   * @param GameRecording recording: the game to play back
+   * @param int keyframeInterval: number of moves between two keyframes
+   */
+  public ReplayEngine(GameRecording recording, int keyframeInterval) {
+    if (keyframeInterval < 1) {
+      throw new IllegalArgumentException("Keyframe interval must be at " +
+                                         "least 1");
+    }
+    this.recording = recording;
+    this.keyframeInterval = keyframeInterval;
+    this.tiles = recording.getGridSize() * recording.getGridSize();
+    int keyframes = recording.getMoveCount() / keyframeInterval + 1;
+    this.keyframeExponents = new byte[keyframes][];
+    this.keyframeScores = new long[keyframes];
+    this.keyframeStates = new long[keyframes];
+
+    GameRandom random = new GameRandom(recording.getSeed());
+    Board board = new Board(recording.getGridSize(), random);
+    board.setUndoDepth(1);
+    for (int move = 0; move < recording.getMoveCount(); move++) {
+      if (move % keyframeInterval == 0) {
+        this.addKeyframe(board, random);
+      }
+      this.replayMove(board, move);
+    }
+    if (recording.getMoveCount() % keyframeInterval == 0) {
+      this.addKeyframe(board, random);
+    }
+  }
+
+  /**
+   * Plays a recording through once, with the default keyframe interval
+   * @param GameRecording recording: the game to play back
+   */
+  public ReplayEngine(GameRecording recording) {
+    this(recording, DEFAULT_KEYFRAME_INTERVAL);
+  }
+
+  // Return the recording played back
+  public GameRecording getRecording() {
+    return recording;
+  }
+
+  /**
+   * Rebuilds the board after a number of moves of the game, including
+   * the random tile added after the last of them
+   * @param int moves - number of moves, 0 for the start of the game,
+   *                    at most getRecording().getMoveCount()
+   * @return Board - a new board, whose random generator continues the
+   *                 game
+   */
+  public Board boardAfter(int moves) {
+    if (moves < 0 || moves > this.recording.getMoveCount()) {
+      throw new IndexOutOfBoundsException("Move " + moves + " of " +
+                                          this.recording.getMoveCount());
+    }
+    int keyframe = moves / this.keyframeInterval;
+    GameRandom random = new GameRandom(0);
+    random.setState(this.keyframeStates[keyframe]);
+    Board board = new Board(this.recording.getGridSize(),
+                            this.keyframeScores[keyframe],
+                            this.keyframeExponents[keyframe], random);
+    for (int move = keyframe * this.keyframeInterval; move < moves; move++) {
+      this.replayMove(board, move);
+    }
+    return board;
+  }
+
+  // Return the board at the end of the game
+  public Board finalBoard() {
+    return boardAfter(recording.getMoveCount());
+  }
+
+  /**
+   * Makes a recorded move and adds the random tile after it
+   * @param Board board - the board before the move
+   * @param int move - number of the move in the recording
+   */
+  private void replayMove(Board board, int move) {
+    Direction direction = this.recording.getMove(move);
+    if (!board.canMove(direction)) {
+      throw new IllegalStateException("Recorded move " + move + " (" +
+                                      direction + ") is not possible");
+    }
+    board.move(direction);
+    board.addRandomTile();
+  }
+
+  /**
+   * Keeps the tiles, score and random generator state of a board
+   */
+  private void addKeyframe(Board board, GameRandom random) {
+    byte[] exponents = new byte[this.tiles];
+    board.copyExponents(exponents);
+    this.keyframeExponents[this.keyframeCount] = exponents;
+    this.keyframeScores[this.keyframeCount] = board.getScore();
+    this.keyframeStates[this.keyframeCount] = random.getState();
+    this.keyframeCount++;
+  }
+}
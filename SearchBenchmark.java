@@ -0,0 +1,234 @@
+//package G2048;
+
+//------------------------------------------------------------------//
+//  Name: Bilguun Bulgan
+//  File: SearchBenchmark.java
+//
+//  This file measures how the parallel expectimax search scales with
+//  the number of cores. After untimed warmup searches, the same
+//  positions are searched to a fixed depth by the sequential
+//  ExpectimaxSolver and with 1, 2, 4, ... up to all cores, and then
+//  searched again with a time budget to see how deep every thread count
+//  gets. Speedups are given against both the sequential solver and the
+//  pool with one thread. The results are written as CSV.
+//------------------------------------------------------------------//
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Class name: SearchBenchmark
+ * Purpose: Reports the speedup and the reached depth of
+ * ParallelExpectimaxSolver for growing numbers of threads.
+ */
+public class SearchBenchmark {
+
+  //untimed searches of all positions by both solvers before measuring
+  private static final int WARMUP_ROUNDS = 5;
+
+  /**
+   * Runs the benchmark
+   * @param String[] args - command line arguments, see printUsage()
+   */
+  public static void main(String[] args) throws IOException {
+    String outputFile = "search-benchmark.csv";
+    int depth = 4;
+    long budgetMillis = 100;
+    int positions = 20;
+    int maxThreads = Runtime.getRuntime().availableProcessors();
+    long tableBytes = 64L << 20;
+
+    // Arguments must come in pairs
+    if ((args.length % 2) != 0) {
+      printUsage();
+      System.exit(-1);
+    }
+    for (int i = 0; i < args.length; i += 2) {
+      if (args[i].equals("-o")) {
+        outputFile = args[i + 1];
+      }
+      else if (args[i].equals("-d")) {
+        depth = Integer.parseInt(args[i + 1]);
+      }
+      else if (args[i].equals("-b")) {
+        budgetMillis = Long.parseLong(args[i + 1]);
+      }
+      else if (args[i].equals("-n")) {
+        positions = Integer.parseInt(args[i + 1]);
+      }
+      else if (args[i].equals("-t")) {
+        maxThreads = Integer.parseInt(args[i + 1]);
+      }
+      else if (args[i].equals("-m")) {
+        tableBytes = Long.parseLong(args[i + 1]) << 20;
+      }
+      else {
+        printUsage();
+        System.exit(-1);
+      }
+    }
+
+    long[] boards = createPositions(positions);
+
+    //1, 2, 4, ... and finally maxThreads itself
+    List<Integer> threadCounts = new ArrayList<Integer>();
+    for (int threads = 1; threads < maxThreads; threads *= 2) {
+      threadCounts.add(threads);
+    }
+    threadCounts.add(maxThreads);
+
+    PrintWriter writer = new PrintWriter(new FileWriter(outputFile));
+    writer.println("threads,mode,seconds,nodes_per_sec,speedup," +
+                   "speedup_sequential,avg_completed_depth,hit_rate," +
+                   "evictions");
+    try {
+      warmUp(boards, depth, tableBytes, maxThreads);
+
+      //the sequential solver, the baseline without any pool overhead
+      ExpectimaxSolver sequential = new ExpectimaxSolver(depth, 0,
+                                                         tableBytes);
+      double sequentialSeconds = search(sequential, boards);
+      report(writer, 1, "sequential_depth" + depth, sequentialSeconds,
+             sequential.getNodeCount(), Double.NaN, 1.0, depth,
+             sequential.getTable());
+
+      double baseline = 0;
+      for (int threads : threadCounts) {
+        //fixed depth: same work for every thread count
+        ParallelExpectimaxSolver solver =
+          new ParallelExpectimaxSolver(depth, 0, tableBytes, threads);
+        double seconds = search(solver, boards);
+        if (threads == 1) {
+          baseline = seconds;
+        }
+        report(writer, threads, "depth" + depth, seconds,
+               solver.getNodeCount(), baseline / seconds,
+               sequentialSeconds / seconds, depth, solver.getTable());
+        solver.shutdown();
+
+        //fixed time: deeper searches for more threads
+        solver = new ParallelExpectimaxSolver(64, budgetMillis, tableBytes,
+                                              threads);
+        long start = System.nanoTime();
+        int depthSum = 0;
+        for (long board : boards) {
+          solver.bestMove(board);
+          depthSum += solver.getCompletedDepth();
+        }
+        seconds = (System.nanoTime() - start) / 1e9;
+        report(writer, threads, "budget" + budgetMillis + "ms", seconds,
+               solver.getNodeCount(), Double.NaN, Double.NaN,
+               (double) depthSum / boards.length, solver.getTable());
+        solver.shutdown();
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Searches all positions with both solvers without timing them, so
+   * the measured searches don't pay for class loading and compiling
+   */
+  private static void warmUp(long[] boards, int depth, long tableBytes,
+                             int threads) {
+    for (int round = 0; round < WARMUP_ROUNDS; round++) {
+      search(new ExpectimaxSolver(depth, 0, tableBytes), boards);
+      ParallelExpectimaxSolver solver =
+        new ParallelExpectimaxSolver(depth, 0, tableBytes, threads);
+      search(solver, boards);
+      solver.shutdown();
+    }
+  }
+
+  /**
+   * Searches all positions once with the sequential solver
+   * @return double - the time taken in seconds
+   */
+  private static double search(ExpectimaxSolver solver, long[] boards) {
+    long start = System.nanoTime();
+    for (long board : boards) {
+      solver.bestMove(board);
+    }
+    return (System.nanoTime() - start) / 1e9;
+  }
+
+  /**
+   * Searches all positions once
+   * @return double - the time taken in seconds
+   */
+  private static double search(ParallelExpectimaxSolver solver,
+                               long[] boards) {
+    long start = System.nanoTime();
+    for (long board : boards) {
+      solver.bestMove(board);
+    }
+    return (System.nanoTime() - start) / 1e9;
+  }
+
+  /**
+   * Writes one result line to the CSV file and the console
+   */
+  private static void report(PrintWriter writer, int threads, String mode,
+                             double seconds, long nodes, double speedup,
+                             double sequentialSpeedup, double depth,
+                             TranspositionTable table) {
+    long lookups = table.getHits() + table.getMisses();
+    String line = String.format(Locale.ROOT,
+                                "%d,%s,%.3f,%.0f,%.2f,%.2f,%.2f,%.3f,%d",
+                                threads, mode, seconds, nodes / seconds,
+                                speedup, sequentialSpeedup, depth,
+                                (double) table.getHits() / lookups,
+                                table.getEvictions());
+    writer.println(line);
+    writer.flush();
+    System.out.println(line);
+  }
+
+  /**
+   * Plays a seeded game with a quick search and keeps positions from
+   * along the way, so the benchmark has early and late game boards
+   * @param int count - number of positions
+   * @return long[] - the encoded positions
+   */
+  private static long[] createPositions(int count) {
+    long[] boards = new long[count];
+    ExpectimaxSolver player = new ExpectimaxSolver(2, 0, 1L << 20);
+    BitBoard board = new BitBoard(new Random(2048));
+    int found = 0;
+    for (int move = 0; found < count; move++) {
+      if (move % 10 == 0) {
+        boards[found++] = board.getState();
+      }
+      Direction direction = player.bestMove(board.getState());
+      if (direction == null) {
+        board = new BitBoard(new Random(move));
+        continue;
+      }
+      board.move(direction);
+      board.addRandomTile();
+    }
+    return boards;
+  }
+
+  // Print the Usage Message
+  private static void printUsage() {
+    System.out.println("SearchBenchmark");
+    System.out.println("Usage:  SearchBenchmark [-o file] [-d depth] " +
+                       "[-b millis] [-n positions] [-t threads] " +
+                       "[-m megabytes]");
+    System.out.println();
+    System.out.println("  -o [file]      -> CSV file for the results, " +
+                       "default \"search-benchmark.csv\"");
+    System.out.println("  -d [depth]     -> Depth of the fixed depth " +
+                       "searches, default 4");
+    System.out.println("  -b [millis]    -> Time budget per move, " +
+                       "default 100");
+    System.out.println("  -n [positions] -> Number of positions, " +
+                       "default 20");
+    System.out.println("  -t [threads]   -> Highest thread count, " +
+                       "default all cores");
+    System.out.println("  -m [megabytes] -> Memory of the transposition " +
+                       "table, default 64");
+  }
+}
@@ -0,0 +1,335 @@
+//package G2048;
+
+//------------------------------------------------------------------//
+//  Name: Bilguun Bulgan
+//  File: Simulator.java
+//
+//  This file plays 2048 games without the GUI. A MovePolicy picks
+//  every move, and the games are spread across all available cores.
+//  Every game gets its own seed derived from the base seed and the
+//  number of the game, so the results are the same no matter how many
+//  threads played them. At the end the number of games and moves per
+//  second, the score distribution and the max tile histogram are
+//  reported.
+//------------------------------------------------------------------//
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * Class name: Simulator
+ * Purpose: Runs many headless games in parallel and collects their
+ * statistics.
+ */
+public class Simulator {
+
+  //number of games a worker takes at once from the shared counter
+  private static final int GAMES_PER_CHUNK = 64;
+
+  //highest tile exponent kept in the histogram
+  private static final int MAX_EXPONENT = 31;
+
+  /**
+   * Name: Result (class)
+   * Purpose: the statistics of a simulation run
+   */
+  public static final class Result {
+    private final long[] scores;
+    private final long[] maxTileCounts;
+    private final long moves;
+    private final long nanos;
+
+    private Result(long[] scores, long[] maxTileCounts, long moves,
+                   long nanos) {
+      this.scores = scores;
+      this.maxTileCounts = maxTileCounts;
+      this.moves = moves;
+      this.nanos = nanos;
+    }
+
+    // Return the final score of every game, in game order
+    public long[] getScores() {
+      return scores;
+    }
+
+    // Return how many games ended with max tile 2^i, for every i
+    public long[] getMaxTileCounts() {
+      return maxTileCounts;
+    }
+
+    // Return the total number of moves of all games
+    public long getMoves() {
+      return moves;
+    }
+
+    // Return the wall clock time of the run in seconds
+    public double getSeconds() {
+      return nanos / 1e9;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder outputString = new StringBuilder();
+      long[] sorted = scores.clone();
+      Arrays.sort(sorted);
+      long total = 0;
+      for (long score : sorted) {
+        total += score;
+      }
+      double seconds = getSeconds();
+
+      outputString.append(String.format(Locale.ROOT,
+        "Games: %d  Moves: %d  Time: %.3f s\n", sorted.length, moves,
+        seconds));
+      outputString.append(String.format(Locale.ROOT,
+        "Games/sec: %.1f  Moves/sec: %.1f\n", sorted.length / seconds,
+        moves / seconds));
+      if (sorted.length > 0) {
+        outputString.append(String.format(Locale.ROOT,
+          "Score: min %d  p10 %d  p50 %d  p90 %d  p99 %d  max %d  " +
+          "mean %.1f\n", sorted[0], percentile(sorted, 10),
+          percentile(sorted, 50), percentile(sorted, 90),
+          percentile(sorted, 99), sorted[sorted.length - 1],
+          (double) total / sorted.length));
+      }
+      outputString.append("Max tile:\n");
+      for (int exponent = 0; exponent < maxTileCounts.length; exponent++) {
+        if (maxTileCounts[exponent] != 0) {
+          outputString.append(String.format(Locale.ROOT,
+            "%10d  %d (%.2f%%)\n", 1L << exponent,
+            maxTileCounts[exponent],
+            100.0 * maxTileCounts[exponent] / sorted.length));
+        }
+      }
+      return outputString.toString();
+    }
+
+    /**
+     * Returns a percentile of sorted values (nearest rank)
+     */
+    private static long percentile(long[] sorted, int percent) {
+      int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+      return sorted[Math.max(0, rank - 1)];
+    }
+  }
+
+  /**
+   * Plays games on several threads
+   * @param int games - number of games to play
+   * @param int boardSize - size of the boards
+   * @param Supplier<MovePolicy> policies - makes the policy of every
+   *                                        worker, called once per thread
+   * @param long seed - base seed of all games
+   * @param int threads - number of worker threads
+   * @return Result - the statistics of all games
+   */
+  public static Result run(int games, int boardSize,
+                           Supplier<MovePolicy> policies, long seed,
+                           int threads)
+    throws InterruptedException {
+    long[] scores = new long[games];
+    long[][] maxTileCounts = new long[threads][MAX_EXPONENT + 1];
+    long[] moves = new long[threads];
+    AtomicInteger nextGame = new AtomicInteger();
+
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    long start = System.nanoTime();
+
+    for (int worker = 0; worker < threads; worker++) {
+      int id = worker;
+      futures.add(pool.submit(() -> {
+        //policies such as ExpectimaxSolver keep state between moves,
+        //so every worker gets its own
+        MovePolicy policy = policies.get();
+        long[] histogram = maxTileCounts[id];
+        long workerMoves = 0;
+        //takes chunks of games until all of them are played
+        for (int first = nextGame.getAndAdd(GAMES_PER_CHUNK); first < games;
+             first = nextGame.getAndAdd(GAMES_PER_CHUNK)) {
+          int last = Math.min(games, first + GAMES_PER_CHUNK);
+          for (int game = first; game < last; game++) {
+            long gameSeed = mix(seed + game);
+            Board board = new Board(boardSize, new Random(gameSeed));
+            workerMoves += play(board, policy, new Random(mix(gameSeed)),
+                                null);
+            scores[game] = board.getScore();
+            histogram[maxTileExponent(board)]++;
+          }
+        }
+        moves[id] = workerMoves;
+      }));
+    }
+
+    pool.shutdown();
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("A game failed", e.getCause());
+    }
+    long nanos = System.nanoTime() - start;
+
+    //merging the statistics of the workers
+    long[] mergedCounts = new long[MAX_EXPONENT + 1];
+    long totalMoves = 0;
+    for (int worker = 0; worker < threads; worker++) {
+      for (int i = 0; i <= MAX_EXPONENT; i++) {
+        mergedCounts[i] += maxTileCounts[worker][i];
+      }
+      totalMoves += moves[worker];
+    }
+    return new Result(scores, mergedCounts, totalMoves, nanos);
+  }
+
+  /**
+   * Plays a single game of a simulation run again
+   * @param int game - number of the game, decides its seed
+   * @param int boardSize - size of the board
+   * @param MovePolicy policy - picks the moves
+   * @param long seed - base seed of all games
+   * @return Board - the board at the end of the game
+   */
+  public static Board playGame(int game, int boardSize, MovePolicy policy,
+                               long seed) {
+    long gameSeed = mix(seed + game);
+    Board board = new Board(boardSize, new Random(gameSeed));
+    play(board, policy, new Random(mix(gameSeed)), null);
+    return board;
+  }
+
+  /**
+   * Records a single game of a simulation run, so that ReplayEngine can
+   * play it back
+   * @param int game - number of the game, decides its seed
+   * @param int boardSize - size of the board
+   * @param MovePolicy policy - picks the moves
+   * @param long seed - base seed of all games
+   * @return GameRecording - the seed and moves of the game
+   */
+  public static GameRecording recordGame(int game, int boardSize,
+                                         MovePolicy policy, long seed) {
+    long gameSeed = mix(seed + game);
+    GameRecording recording = new GameRecording(boardSize, gameSeed);
+    play(recording.newBoard(), policy, new Random(mix(gameSeed)), recording);
+    return recording;
+  }
+
+  /**
+   * Plays a game until no move is possible
+   * @param Board board - the board to play on
+   * @param MovePolicy policy - picks the moves
+   * @param Random policyRandom - random generator of the policy
+   * @param GameRecording recording - receives the moves, may be null
+   * @return int - the number of moves made
+   */
+  private static int play(Board board, MovePolicy policy,
+                          Random policyRandom, GameRecording recording) {
+    int moves = 0;
+    Direction direction = policy.chooseMove(board, policyRandom);
+    while (direction != null) {
+      if (!board.move(direction)) {
+        throw new IllegalStateException("Policy picked impossible move " +
+                                        direction);
+      }
+      board.addRandomTile();
+      if (recording != null) {
+        recording.addMove(direction);
+      }
+      moves++;
+      direction = policy.chooseMove(board, policyRandom);
+    }
+    return moves;
+  }
+
+  /**
+   * Finds the exponent of the highest tile of a board
+   * @param Board board - the board to check
+   * @return int - the exponent, 0 for an empty board
+   */
+  private static int maxTileExponent(Board board) {
+    int max = 0;
+    for (int[] row : board.getGrid()) {
+      for (int tile : row) {
+        max = Math.max(max, tile);
+      }
+    }
+    return max == 0 ? 0 : Integer.numberOfTrailingZeros(max);
+  }
+
+  /**
+   * Scrambles a seed (SplitMix64 finalizer), so that neighbouring game
+   * numbers get unrelated random generators
+   * @param long value - the value to scramble
+   * @return long - the scrambled value
+   */
+  static long mix(long value) {
+    long z = value + 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * Runs a simulation from the command line
+   * @param String[] args - command line arguments, see printUsage()
+   */
+  public static void main(String[] args) throws InterruptedException {
+    int games = 10000;
+    int boardSize = 4;
+    long seed = 0;
+    int threads = Runtime.getRuntime().availableProcessors();
+    MovePolicy policy = MovePolicy.RANDOM;
+
+    // Arguments must come in pairs
+    if ((args.length % 2) != 0) {
+      printUsage();
+      System.exit(-1);
+    }
+    for (int i = 0; i < args.length; i += 2) {
+      if (args[i].equals("-n")) {
+        games = Integer.parseInt(args[i + 1]);
+      }
+      else if (args[i].equals("-s")) {
+        boardSize = Integer.parseInt(args[i + 1]);
+      }
+      else if (args[i].equals("-r")) {
+        seed = Long.parseLong(args[i + 1]);
+      }
+      else if (args[i].equals("-t")) {
+        threads = Integer.parseInt(args[i + 1]);
+      }
+      else if (args[i].equals("-p") && args[i + 1].equals("random")) {
+        policy = MovePolicy.RANDOM;
+      }
+      else if (args[i].equals("-p") && args[i + 1].equals("corner")) {
+        policy = MovePolicy.CORNER;
+      }
+      else {
+        printUsage();
+        System.exit(-1);
+      }
+    }
+
+    //the built in policies are stateless and can be shared
+    MovePolicy shared = policy;
+    System.out.println(run(games, boardSize, () -> shared, seed, threads));
+  }
+
+  // Print the Usage Message
+  private static void printUsage() {
+    System.out.println("Simulator");
+    System.out.println("Usage:  Simulator [-n games] [-s size] [-r seed] " +
+                       "[-t threads] [-p policy]");
+    System.out.println();
+    System.out.println("  -n [games]   -> Number of games, default 10000");
+    System.out.println("  -s [size]    -> Size of the boards, default 4");
+    System.out.println("  -r [seed]    -> Base seed of the games, default 0");
+    System.out.println("  -t [threads] -> Worker threads, default all cores");
+    System.out.println("  -p [policy]  -> \"random\" or \"corner\", " +
+                       "default random");
+  }
+}
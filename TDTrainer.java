@@ -0,0 +1,275 @@
+//package G2048;
+
+//------------------------------------------------------------------//
+//  Name: Bilguun Bulgan
+//  File: TDTrainer.java
+//
+//  This file trains an NTupleNetwork with temporal difference learning
+//  on self play games. Every move is picked greedily (score plus value
+//  of the board after the move), and the value of the previous board
+//  after a move is pulled towards the reward and value of the next one
+//  (TD(0) on afterstates). Games follow the move and addRandomTile
+//  rules of BitBoard. Several threads train the same network at once
+//  without locks, and the network can be written to a checkpoint file
+//  regularly.
+//------------------------------------------------------------------//
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Class name: TDTrainer
+ * Purpose: Plays self play games and updates the weights of an
+ * n-tuple network after every move.
+ */
+public class TDTrainer {
+
+  //games a worker takes at once from the shared counter
+  private static final int GAMES_PER_CHUNK = 16;
+
+  private final NTupleNetwork network;
+  private final float learningRate;
+
+  //statistics of the games played since the last report
+  private final LongAdder games = new LongAdder();
+  private final LongAdder scoreSum = new LongAdder();
+  private final LongAdder wins = new LongAdder();
+
+  /**
+   * Constructs a trainer
+   * @param NTupleNetwork network: the network to train
+   * @param float learningRate: step size of a TD update, it is shared
+   *                            out between all features of a board
+   */
+  public TDTrainer(NTupleNetwork network, float learningRate) {
+    this.network = network;
+    this.learningRate = learningRate / network.getFeatureCount();
+  }
+
+  /**
+   * Plays one self play game and learns from it
+   * @param Random random - random generator of the game
+   * @return long - the encoded board at the end of the game, the score
+   *                is returned through the statistics
+   */
+  public long playGame(Random random) {
+    long board = BitBoard.addRandomTile(BitBoard.addRandomTile(0L, random),
+                                        random);
+    long previousAfterstate = 0L;
+    int score = 0;
+
+    while (true) {
+      //picks the move with the highest reward plus afterstate value
+      long bestAfterstate = 0L;
+      int bestReward = 0;
+      float bestValue = Float.NEGATIVE_INFINITY;
+      for (Direction direction : ExpectimaxSolver.DIRECTIONS) {
+        long moved = MoveTables.move(board, direction);
+        if (moved == board) {
+          continue;
+        }
+        int reward = MoveTables.score(board, direction);
+        float value = reward + this.network.value(moved);
+        if (value > bestValue) {
+          bestValue = value;
+          bestAfterstate = moved;
+          bestReward = reward;
+        }
+      }
+
+      if (bestAfterstate == 0L) {
+        //game over, the last afterstate is worth nothing
+        if (previousAfterstate != 0L) {
+          float error = -this.network.value(previousAfterstate);
+          this.network.update(previousAfterstate, this.learningRate * error);
+        }
+        break;
+      }
+
+      if (previousAfterstate != 0L) {
+        float error = bestValue - this.network.value(previousAfterstate);
+        this.network.update(previousAfterstate, this.learningRate * error);
+      }
+      previousAfterstate = bestAfterstate;
+      score += bestReward;
+      board = BitBoard.addRandomTile(bestAfterstate, random);
+    }
+
+    this.games.increment();
+    this.scoreSum.add(score);
+    if (maxExponent(board) >= 11) {
+      this.wins.increment();
+    }
+    return board;
+  }
+
+  /**
+   * Trains on several threads
+   * @param long totalGames - number of games to play
+   * @param int threads - number of worker threads
+   * @param long seed - base seed, game i uses a generator seeded from it
+   * @param long reportEvery - games between progress reports and
+   *                           checkpoints, 0 for none
+   * @param String checkpointFile - file for the checkpoints, or null
+   */
+  public void train(long totalGames, int threads, long seed,
+                    long reportEvery, String checkpointFile)
+    throws InterruptedException, IOException {
+    AtomicLong nextGame = new AtomicLong();
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    long start = System.nanoTime();
+
+    for (int worker = 0; worker < threads; worker++) {
+      futures.add(pool.submit(() -> {
+        Random random = new Random();
+        for (long first = nextGame.getAndAdd(GAMES_PER_CHUNK);
+             first < totalGames;
+             first = nextGame.getAndAdd(GAMES_PER_CHUNK)) {
+          long last = Math.min(totalGames, first + GAMES_PER_CHUNK);
+          for (long game = first; game < last; game++) {
+            random.setSeed(Simulator.mix(seed + game));
+            this.playGame(random);
+          }
+        }
+      }));
+    }
+    pool.shutdown();
+
+    //reports and saves from this thread while the workers train
+    long played = 0;
+    long nextReport = reportEvery;
+    while (!pool.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+      if (reportEvery > 0 && played + this.games.sum() >= nextReport) {
+        played += this.report(start);
+        nextReport += reportEvery;
+        if (checkpointFile != null) {
+          this.network.save(checkpointFile);
+        }
+      }
+    }
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Training failed", e.getCause());
+    }
+    this.report(start);
+    if (checkpointFile != null) {
+      this.network.save(checkpointFile);
+    }
+  }
+
+  /**
+   * Prints and resets the statistics since the last report
+   * @return long - the number of games in the report
+   */
+  private long report(long start) {
+    long count = this.games.sumThenReset();
+    long sum = this.scoreSum.sumThenReset();
+    long won = this.wins.sumThenReset();
+    if (count > 0) {
+      System.out.println(String.format(Locale.ROOT,
+        "%.1f s  games %d  mean score %.1f  2048 rate %.2f%%",
+        (System.nanoTime() - start) / 1e9, count, (double) sum / count,
+        100.0 * won / count));
+    }
+    return count;
+  }
+
+  /**
+   * Finds the highest exponent of an encoded board
+   */
+  private static int maxExponent(long board) {
+    int max = 0;
+    for (int shift = 0; shift < 64; shift += 4) {
+      max = Math.max(max, (int) ((board >>> shift) & 0xFL));
+    }
+    return max;
+  }
+
+  /**
+   * Runs a training from the command line
+   * @param String[] args - command line arguments, see printUsage()
+   */
+  public static void main(String[] args)
+    throws InterruptedException, IOException {
+    long totalGames = 100000;
+    int threads = Runtime.getRuntime().availableProcessors();
+    float learningRate = 0.1f;
+    long seed = 0;
+    long reportEvery = 10000;
+    String inputFile = null;
+    String outputFile = "ntuple.weights";
+    boolean small = false;
+
+    // Arguments must come in pairs
+    if ((args.length % 2) != 0) {
+      printUsage();
+      System.exit(-1);
+    }
+    for (int i = 0; i < args.length; i += 2) {
+      if (args[i].equals("-n")) {
+        totalGames = Long.parseLong(args[i + 1]);
+      }
+      else if (args[i].equals("-t")) {
+        threads = Integer.parseInt(args[i + 1]);
+      }
+      else if (args[i].equals("-a")) {
+        learningRate = Float.parseFloat(args[i + 1]);
+      }
+      else if (args[i].equals("-r")) {
+        seed = Long.parseLong(args[i + 1]);
+      }
+      else if (args[i].equals("-e")) {
+        reportEvery = Long.parseLong(args[i + 1]);
+      }
+      else if (args[i].equals("-i")) {
+        inputFile = args[i + 1];
+      }
+      else if (args[i].equals("-o")) {
+        outputFile = args[i + 1];
+      }
+      else if (args[i].equals("-k")) {
+        small = args[i + 1].equals("small");
+      }
+      else {
+        printUsage();
+        System.exit(-1);
+      }
+    }
+
+    NTupleNetwork network;
+    if (inputFile != null) {
+      network = NTupleNetwork.load(inputFile);
+    }
+    else {
+      network = small ? NTupleNetwork.small() : NTupleNetwork.standard();
+    }
+    new TDTrainer(network, learningRate).train(totalGames, threads, seed,
+                                               reportEvery, outputFile);
+  }
+
+  // Print the Usage Message
+  private static void printUsage() {
+    System.out.println("TDTrainer");
+    System.out.println("Usage:  TDTrainer [-n games] [-t threads] " +
+                       "[-a rate] [-r seed] [-e games] [-i|o file] " +
+                       "[-k kind]");
+    System.out.println();
+    System.out.println("  -n [games]   -> Number of games, default 100000");
+    System.out.println("  -t [threads] -> Worker threads, default all cores");
+    System.out.println("  -a [rate]    -> Learning rate, default 0.1");
+    System.out.println("  -r [seed]    -> Base seed of the games, default 0");
+    System.out.println("  -e [games]   -> Games between reports and " +
+                       "checkpoints, default 10000");
+    System.out.println("  -i [file]    -> Checkpoint to continue from");
+    System.out.println("  -o [file]    -> Checkpoint file, default " +
+                       "\"ntuple.weights\"");
+    System.out.println("  -k [kind]    -> \"standard\" (6-tuples) or " +
+                       "\"small\" (4-tuples), default standard");
+  }
+}
@@ -0,0 +1,225 @@
+//package G2048;
+
+//------------------------------------------------------------------//
+//  Name: Bilguun Bulgan
+//  File: TranspositionTable.java
+//
+//  This file is a fixed size cache from position keys (encoded 4x4
+//  boards, or Board.zobristHash() of larger boards) to their
+//  evaluation, used by the expectimax search so that positions reached
+//  through different move orders are only evaluated once. The entries
+//  live off the Java heap in direct byte buffers, so even tables of
+//  several gigabytes don't box anything or slow down garbage
+//  collection. The size of the table is given in bytes. Collisions are
+//  resolved by probing a few neighbouring slots (open addressing), and
+//  when all of them are taken the entry of an older search, or else the
+//  entry searched the least deep, is replaced.
+//
+//  Several search threads may share one table without locks. Every
+//  entry is two longs: the key XORed with the data, and the data
+//  (value, depth and age). A reader that sees half of a concurrent
+//  write gets a key that doesn't match and treats the entry as missing.
+//------------------------------------------------------------------//
+
+import java.lang.invoke.*;
+import java.nio.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Class name: TranspositionTable
+ * Purpose: Caches the value of searched positions together with the
+ * depth they were searched to, off the heap. Safe to share between
+ * threads.
+ */
+public class TranspositionTable {
+
+  //bytes of one entry: key ^ data, then data
+  public static final int ENTRY_BYTES = 16;
+
+  //number of neighbouring slots checked for a key
+  private static final int PROBES = 4;
+
+  //entries of one buffer, a direct buffer holds at most 2 GB
+  private static final int SEGMENT_BITS = 26;
+  private static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+
+  //single long reads and writes of the buffers must not tear
+  private static final VarHandle LONGS =
+    MethodHandles.byteBufferViewVarHandle(long[].class,
+                                          ByteOrder.nativeOrder());
+
+  private final ByteBuffer[] segments;
+  private final long mask;
+  private final int shift;
+
+  //age of the current search, stored with every entry
+  private volatile int age;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * Constructs an empty table
+   * @param long capacityBytes: memory the table may use; the number of
+   *                            entries is the largest power of two that
+   *                            fits, at least 16
+   */
+  public TranspositionTable(long capacityBytes) {
+    long entries = Long.highestOneBit(Math.max(16, capacityBytes /
+                                               ENTRY_BYTES));
+    if (entries > (1L << 34)) {
+      throw new IllegalArgumentException("Capacity of " + capacityBytes +
+                                         " bytes is too large");
+    }
+    this.mask = entries - 1;
+    this.shift = Long.numberOfLeadingZeros(entries) + 1;
+    int count = (int) ((entries + SEGMENT_MASK) >>> SEGMENT_BITS);
+    this.segments = new ByteBuffer[count];
+    for (int i = 0; i < count; i++) {
+      long segmentEntries = Math.min(entries, 1L << SEGMENT_BITS);
+      this.segments[i] = ByteBuffer.allocateDirect(
+        (int) (segmentEntries * ENTRY_BYTES)).order(ByteOrder.nativeOrder());
+    }
+  }
+
+  /**
+   * Looks up the value of a position
+   * @param long key - the encoded board or position hash
+   * @param int depth - the depth the value must have been searched to
+   * @return float - the value, or NaN if the position isn't cached at
+   *                 that depth
+   */
+  public float get(long key, int depth) {
+    long slot = index(key);
+    for (int i = 0; i < PROBES; i++, slot = (slot + 1) & this.mask) {
+      ByteBuffer segment = this.segments[(int) (slot >>> SEGMENT_BITS)];
+      int offset = (int) (slot & SEGMENT_MASK) * ENTRY_BYTES;
+      long check = (long) LONGS.getOpaque(segment, offset);
+      long data = (long) LONGS.getOpaque(segment, offset + 8);
+      if (data != 0 && (check ^ data) == key) {
+        if (depthOf(data) >= depth) {
+          this.hits.increment();
+          return Float.intBitsToFloat((int) data);
+        }
+        break;
+      }
+      if (data == 0) {
+        break;
+      }
+    }
+    this.misses.increment();
+    return Float.NaN;
+  }
+
+  /**
+   * Stores the value of a position
+   * @param long key - the encoded board or position hash
+   * @param int depth - the depth the position was searched to, 1..255
+   * @param float value - the value of the position
+   */
+  public void put(long key, int depth, float value) {
+    int currentAge = this.age;
+    long slot = index(key);
+    long victim = slot;
+    int victimPriority = Integer.MAX_VALUE;
+    boolean evicting = false;
+    for (int i = 0; i < PROBES; i++, slot = (slot + 1) & this.mask) {
+      ByteBuffer segment = this.segments[(int) (slot >>> SEGMENT_BITS)];
+      int offset = (int) (slot & SEGMENT_MASK) * ENTRY_BYTES;
+      long check = (long) LONGS.getOpaque(segment, offset);
+      long data = (long) LONGS.getOpaque(segment, offset + 8);
+      //reuses the slot of the same position, or an empty one
+      if (data != 0 && (check ^ data) == key) {
+        if (depthOf(data) > depth) {
+          return;
+        }
+        victim = slot;
+        evicting = false;
+        break;
+      }
+      if (data == 0) {
+        victim = slot;
+        evicting = false;
+        break;
+      }
+      //entries of older searches go first, then the shallowest ones
+      int priority = depthOf(data) + ((ageOf(data) == currentAge) ? 256 : 0);
+      if (priority < victimPriority) {
+        victim = slot;
+        victimPriority = priority;
+        evicting = true;
+      }
+    }
+    if (evicting) {
+      this.evictions.increment();
+    }
+    long data = ((long) currentAge << 40) | ((long) depth << 32) |
+      (Float.floatToRawIntBits(value) & 0xFFFFFFFFL);
+    ByteBuffer segment = this.segments[(int) (victim >>> SEGMENT_BITS)];
+    int offset = (int) (victim & SEGMENT_MASK) * ENTRY_BYTES;
+    LONGS.setOpaque(segment, offset, key ^ data);
+    LONGS.setOpaque(segment, offset + 8, data);
+  }
+
+  /**
+   * Starts a new search: entries stored from now on are preferred over
+   * the ones of earlier searches when slots are replaced
+   */
+  public void newSearch() {
+    this.age = (this.age + 1) & 0xFF;
+  }
+
+  /**
+   * Removes all entries, must not run while other threads use the table
+   */
+  public void clear() {
+    for (ByteBuffer segment : this.segments) {
+      for (int offset = 0; offset < segment.capacity(); offset += 8) {
+        segment.putLong(offset, 0L);
+      }
+    }
+  }
+
+  // Return the memory used by the entries, in bytes
+  public long getCapacityBytes() {
+    return (mask + 1) * ENTRY_BYTES;
+  }
+
+  // Return the number of lookups that found a value
+  public long getHits() {
+    return hits.sum();
+  }
+
+  // Return the number of lookups that didn't find a value
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  // Return the number of entries replaced by another position
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  /**
+   * Extracts the depth from the data of an entry
+   */
+  private static int depthOf(long data) {
+    return (int) (data >>> 32) & 0xFF;
+  }
+
+  /**
+   * Extracts the age of the search from the data of an entry
+   */
+  private static int ageOf(long data) {
+    return (int) (data >>> 40) & 0xFF;
+  }
+
+  /**
+   * Spreads the bits of a key over the slot index, using the highest
+   * bits of the product
+   */
+  private long index(long key) {
+    return (key * 0x9E3779B97F4A7C15L) >>> this.shift;
+  }
+}
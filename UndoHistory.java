@@ -0,0 +1,310 @@
+//package G2048;
+
+//------------------------------------------------------------------//
+//  Name: Bilguun Bulgan
+//  File: UndoHistory.java
+//
+//  This file keeps the undo and redo history of a Board. A step (a move
+//  and the tile added after it, or a rotation) is stored as the list of
+//  tiles it changed, with their exponents before and after the step, so
+//  undoing or redoing a step costs as much as the number of tiles it
+//  changed and not the size of the board. All changes live in one ring
+//  buffer (the journal); when it is full, or when there are more steps
+//  than the configured depth, the oldest steps are forgotten.
+//------------------------------------------------------------------//
+
+/**
+ * Class name: UndoHistory
+ * Purpose: Ring buffers of tile changes and steps used by Board for
+ * multi-level undo and redo.
+ */
+final class UndoHistory {
+
+  //the journal never grows beyond this many changes (unless a single
+  //step needs more), and starts with at most this many
+  private static final int MAX_JOURNAL = 1 << 20;
+  private static final int INITIAL_JOURNAL = 1 << 10;
+
+  private final int depth;
+  private final int journalLimit;
+
+  //journal of changes, position p is stored at index p % length; the
+  //tiles are stored as exponents, one byte each
+  private int[] cells;
+  private byte[] oldValues;
+  private byte[] newValues;
+
+  //ring of steps, step s is stored at index s % depth
+  private final long[] stepStarts;
+  private final long[] scoresBefore;
+  private final long[] scoresAfter;
+
+  //steps oldest..current-1 can be undone, current..newest-1 redone
+  private long oldest;
+  private long current;
+  private long newest;
+  private long journalEnd;
+
+  //true while changes are added to the latest step
+  private boolean open;
+
+  /**
+   * Constructs an empty history
+   * @param int depth: number of steps that can be undone
+   * @param int tiles: number of tiles of the board
+   */
+  UndoHistory(int depth, int tiles) {
+    if (depth < 1) {
+      throw new IllegalArgumentException("Undo depth must be at least 1");
+    }
+    this.depth = depth;
+    //one full step of every tile plus the added tile must always fit
+    long wanted = (long) depth * (tiles + 1);
+    this.journalLimit = (int) Math.max(tiles + 1,
+                                       Math.min(wanted, MAX_JOURNAL));
+    int initial = Math.min(this.journalLimit, INITIAL_JOURNAL);
+    this.cells = new int[initial];
+    this.oldValues = new byte[initial];
+    this.newValues = new byte[initial];
+    this.stepStarts = new long[depth + 1];
+    this.scoresBefore = new long[depth];
+    this.scoresAfter = new long[depth];
+  }
+
+  /**
+   * Constructs a copy of another history
+   * @param UndoHistory other: the history to copy
+   */
+  UndoHistory(UndoHistory other) {
+    this.depth = other.depth;
+    this.journalLimit = other.journalLimit;
+    this.cells = other.cells.clone();
+    this.oldValues = other.oldValues.clone();
+    this.newValues = other.newValues.clone();
+    this.stepStarts = other.stepStarts.clone();
+    this.scoresBefore = other.scoresBefore.clone();
+    this.scoresAfter = other.scoresAfter.clone();
+    this.oldest = other.oldest;
+    this.current = other.current;
+    this.newest = other.newest;
+    this.journalEnd = other.journalEnd;
+    this.open = other.open;
+  }
+
+  /**
+   * Starts a new step, forgets all steps that could be redone
+   * @param long score - the score before the step
+   */
+  void beginStep(long score) {
+    this.newest = this.current;
+    this.journalEnd = this.startOf(this.current);
+    if (this.current - this.oldest == this.depth) {
+      this.oldest++;
+    }
+    int slot = (int) (this.current % this.depth);
+    this.scoresBefore[slot] = score;
+    this.current++;
+    this.newest = this.current;
+    this.setStart(this.current, this.journalEnd);
+    this.open = true;
+  }
+
+  // Return true if changes are currently added to the latest step
+  boolean isOpen() {
+    return open;
+  }
+
+  /**
+   * Adds a tile change to the latest step
+   * @param int cell - index of the tile, row * size + column
+   * @param int oldValue - exponent before the change
+   * @param int newValue - exponent after the change
+   */
+  void record(int cell, int oldValue, int newValue) {
+    if (!this.open || !this.makeRoom(1)) {
+      return;
+    }
+    int index = (int) (this.journalEnd % this.cells.length);
+    this.cells[index] = cell;
+    this.oldValues[index] = (byte) oldValue;
+    this.newValues[index] = (byte) newValue;
+    this.journalEnd++;
+    this.setStart(this.current, this.journalEnd);
+  }
+
+  /**
+   * Adds room for a number of changes to the latest step. The changes
+   * are then written with write(), several threads may write their own
+   * positions at the same time.
+   * @param int count - number of changes
+   * @return long - journal position of the first change, -1 if the
+   *                step isn't recorded
+   */
+  long reserve(int count) {
+    if (!this.open || !this.makeRoom(count)) {
+      return -1;
+    }
+    long first = this.journalEnd;
+    this.journalEnd += count;
+    this.setStart(this.current, this.journalEnd);
+    return first;
+  }
+
+  /**
+   * Writes changes to positions returned by reserve()
+   * @param long position - journal position of the first change
+   * @param int[] changedCells - the tiles of the changes
+   * @param byte[] before - exponents before the changes
+   * @param byte[] after - exponents after the changes
+   * @param int count - number of changes
+   */
+  void write(long position, int[] changedCells, byte[] before, byte[] after,
+             int count) {
+    //copies in up to two pieces, the second one after the ring wraps
+    int length = this.cells.length;
+    for (int done = 0; done < count; ) {
+      int index = (int) ((position + done) % length);
+      int piece = Math.min(count - done, length - index);
+      System.arraycopy(changedCells, done, this.cells, index, piece);
+      System.arraycopy(before, done, this.oldValues, index, piece);
+      System.arraycopy(after, done, this.newValues, index, piece);
+      done += piece;
+    }
+  }
+
+  /**
+   * Ends adding changes to the latest step; the next change starts its
+   * own step
+   */
+  void close() {
+    this.open = false;
+  }
+
+  // Return true if there is a step to undo
+  boolean canUndo() {
+    return current > oldest;
+  }
+
+  // Return true if there is a step to redo
+  boolean canRedo() {
+    return newest > current;
+  }
+
+  /**
+   * Moves back by one step
+   * @param long score - the score now, restored by a later redo
+   * @return long - the step to revert with the change accessors
+   */
+  long undo(long score) {
+    this.open = false;
+    this.current--;
+    this.scoresAfter[(int) (this.current % this.depth)] = score;
+    return this.current;
+  }
+
+  /**
+   * Moves forward by one step
+   * @return long - the step to apply with the change accessors
+   */
+  long redo() {
+    this.open = false;
+    return this.current++;
+  }
+
+  // Return the score before a step
+  long scoreBefore(long step) {
+    return scoresBefore[(int) (step % depth)];
+  }
+
+  // Return the score after a step (known once it was undone)
+  long scoreAfter(long step) {
+    return scoresAfter[(int) (step % depth)];
+  }
+
+  // Return the score before the latest step that can be undone, or -1
+  long lastScoreBefore() {
+    return canUndo() ? scoreBefore(current - 1) : -1;
+  }
+
+  // Return the journal position of the first change of a step
+  long firstChange(long step) {
+    return startOf(step);
+  }
+
+  // Return the journal position after the last change of a step
+  long endOfChanges(long step) {
+    return startOf(step + 1);
+  }
+
+  // Return the tile of a change
+  int cellAt(long position) {
+    return cells[(int) (position % cells.length)];
+  }
+
+  // Return the exponent of a tile before a change
+  int oldValueAt(long position) {
+    return oldValues[(int) (position % oldValues.length)];
+  }
+
+  // Return the exponent of a tile after a change
+  int newValueAt(long position) {
+    return newValues[(int) (position % newValues.length)];
+  }
+
+  private long startOf(long step) {
+    return this.stepStarts[(int) (step % (this.depth + 1))];
+  }
+
+  private void setStart(long step, long position) {
+    this.stepStarts[(int) (step % (this.depth + 1))] = position;
+  }
+
+  /**
+   * Makes room for more changes of the latest step: grows the journal
+   * first, then forgets old steps until there is room, steps without
+   * changes don't free any
+   * @param int count - number of changes to add
+   * @return boolean - false if the latest step alone doesn't fit, it is
+   *                   then forgotten as well and can't be undone
+   */
+  private boolean makeRoom(int count) {
+    while (this.journalEnd + count - this.startOf(this.oldest) >
+           this.cells.length) {
+      if (this.cells.length < this.journalLimit) {
+        this.grow();
+      }
+      else {
+        this.oldest++;
+        if (this.oldest == this.current) {
+          this.oldest = this.current = this.newest = 0;
+          this.journalEnd = 0;
+          this.setStart(0, 0);
+          this.open = false;
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Doubles the journal, keeping every position at index p % length
+   */
+  private void grow() {
+    int length = (int) Math.min((long) this.cells.length * 2,
+                                this.journalLimit);
+    int[] newCells = new int[length];
+    byte[] newOld = new byte[length];
+    byte[] newNew = new byte[length];
+    for (long p = this.startOf(this.oldest); p < this.journalEnd; p++) {
+      int from = (int) (p % this.cells.length);
+      int to = (int) (p % length);
+      newCells[to] = this.cells[from];
+      newOld[to] = this.oldValues[from];
+      newNew[to] = this.newValues[from];
+    }
+    this.cells = newCells;
+    this.oldValues = newOld;
+    this.newValues = newNew;
+  }
+}